@@ -1,5 +1,6 @@
 package it.lorisdemicheli.minecraft_servers_controller.config;
 
+import org.springframework.boot.tomcat.TomcatConnectorCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,4 +13,11 @@ public class GeneralConfig {
     return new ObjectMapper();
   }
 
+  @Bean
+  TomcatConnectorCustomizer continueOnRead() {
+    // Tomcat risponde "100 Continue" appena arriva la richiesta; così lo fa solo quando il
+    // controller legge il corpo e gli upload di blob già noti non vengono trasferiti
+    return connector -> connector.setProperty("continueResponseTiming", "onRead");
+  }
+
 }
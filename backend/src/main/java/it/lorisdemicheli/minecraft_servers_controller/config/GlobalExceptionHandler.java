@@ -7,6 +7,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.PayloadTooLargeException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceAlreadyExistsException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceNotFoundException;
 
@@ -32,4 +34,26 @@ public class GlobalExceptionHandler {
 
     return new ResponseEntity<>(body, HttpStatus.NOT_FOUND);
   }
+
+  @ExceptionHandler(ConfigurationException.class)
+  public ResponseEntity<Object> handleBadRequest(ConfigurationException ex) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("timestamp", LocalDateTime.now());
+    body.put("status", HttpStatus.BAD_REQUEST.value());
+    body.put("error", "Bad Request");
+    body.put("message", ex.getMessage());
+
+    return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+  }
+
+  @ExceptionHandler(PayloadTooLargeException.class)
+  public ResponseEntity<Object> handlePayloadTooLarge(PayloadTooLargeException ex) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("timestamp", LocalDateTime.now());
+    body.put("status", HttpStatus.CONTENT_TOO_LARGE.value());
+    body.put("error", "Content Too Large");
+    body.put("message", ex.getMessage());
+
+    return new ResponseEntity<>(body, HttpStatus.CONTENT_TOO_LARGE);
+  }
 }
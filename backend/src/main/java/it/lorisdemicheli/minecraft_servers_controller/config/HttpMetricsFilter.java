@@ -0,0 +1,77 @@
+package it.lorisdemicheli.minecraft_servers_controller.config;
+
+import java.io.IOException;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import io.prometheus.client.Histogram;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Latenza delle richieste HTTP per metodo, rotta e stato. La rotta è il pattern del controller,
+ * es. {@code /servers/{serverName}/files}, così i nomi dei server non moltiplicano le serie. Le
+ * risposte asincrone (SSE, download in streaming) vengono misurate fino al completamento.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class HttpMetricsFilter extends OncePerRequestFilter {
+
+  private static final Histogram REQUEST_DURATION = Histogram.build() //
+      .name("minecraft_controller_http_request_duration_seconds") //
+      .help("HTTP request latency by method, route and status") //
+      .labelNames("method", "uri", "status") //
+      .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30) //
+      .register();
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    long start = System.nanoTime();
+    boolean async = false;
+    boolean completed = false;
+    try {
+      filterChain.doFilter(request, response);
+      completed = true;
+      if (request.isAsyncStarted()) {
+        async = true;
+        request.getAsyncContext().addListener(new AsyncListener() {
+          @Override
+          public void onComplete(AsyncEvent event) {
+            record(request, response.getStatus(), start);
+          }
+
+          @Override
+          public void onTimeout(AsyncEvent event) {
+          }
+
+          @Override
+          public void onError(AsyncEvent event) {
+          }
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {
+          }
+        });
+      }
+    } finally {
+      if (!async) {
+        // Le eccezioni non gestite diventano un 500 solo dopo il filtro
+        record(request, completed ? response.getStatus() : 500, start);
+      }
+    }
+  }
+
+  private static void record(HttpServletRequest request, int status, long start) {
+    // Senza handler (404, richieste rifiutate dalla sicurezza) non c'è un pattern
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    REQUEST_DURATION.labels(request.getMethod(), pattern != null ? pattern.toString() : "other",
+        Integer.toString(status)).observe((System.nanoTime() - start) / 1e9);
+  }
+}
@@ -0,0 +1,70 @@
+package it.lorisdemicheli.minecraft_servers_controller.config;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import io.prometheus.client.Histogram;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Latenza delle chiamate alle API di Kubernetes per verbo e risorsa, es. {@code get statefulsets}
+ * o {@code delete persistentvolumeclaims}. Misurarle sul client HTTP copre tutte le chiamate,
+ * comprese le letture di ripiego quando la cache degli informer non ha l'oggetto. Watch, exec e
+ * log restano aperti per minuti e non vengono misurati qui.
+ */
+class KubernetesApiMetricsInterceptor implements Interceptor {
+
+  private static final Histogram REQUEST_DURATION = Histogram.build() //
+      .name("minecraft_controller_kubernetes_api_request_duration_seconds") //
+      .help("Kubernetes API request latency by verb and resource") //
+      .labelNames("verb", "resource", "code") //
+      .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10) //
+      .register();
+
+  private static final Set<String> STREAMING_SUBRESOURCES =
+      Set.of("exec", "attach", "log", "portforward", "proxy");
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    // es. /api/v1/namespaces/ns/pods/nome/log o /apis/apps/v1/namespaces/ns/statefulsets
+    List<String> segments = request.url().pathSegments();
+    int prefix = segments.size() > 0 && segments.get(0).equals("api") ? 2 : 3;
+    List<String> path = segments.size() > prefix ? segments.subList(prefix, segments.size())
+        : List.of();
+    if (path.size() > 2 && path.get(0).equals("namespaces")) {
+      path = path.subList(2, path.size());
+    }
+    if (path.isEmpty() || "true".equals(request.url().queryParameter("watch"))
+        || (path.size() > 2 && STREAMING_SUBRESOURCES.contains(path.get(2)))) {
+      return chain.proceed(request);
+    }
+
+    String verb = verb(request.method(), path.size() > 1);
+    String resource = path.size() > 2 ? path.get(0) + "/" + path.get(2) : path.get(0);
+    long start = System.nanoTime();
+    String code = "error";
+    try {
+      Response response = chain.proceed(request);
+      code = Integer.toString(response.code());
+      return response;
+    } finally {
+      REQUEST_DURATION.labels(verb, resource, code) //
+          .observe((System.nanoTime() - start) / 1e9);
+    }
+  }
+
+  private static String verb(String method, boolean named) {
+    return switch (method) {
+      case "GET" -> named ? "get" : "list";
+      case "POST" -> "create";
+      case "PUT" -> "update";
+      case "PATCH" -> "patch";
+      case "DELETE" -> named ? "delete" : "deletecollection";
+      default -> method.toLowerCase(Locale.ROOT);
+    };
+  }
+}
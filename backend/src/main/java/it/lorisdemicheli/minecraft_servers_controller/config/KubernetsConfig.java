@@ -1,6 +1,7 @@
 package it.lorisdemicheli.minecraft_servers_controller.config;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import io.kubernetes.client.Copy;
@@ -10,14 +11,20 @@ import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.apis.AppsV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.apis.CustomObjectsApi;
+import io.kubernetes.client.informer.SharedInformerFactory;
 import io.kubernetes.client.util.Config;
+import okhttp3.OkHttpClient;
 
 @Configuration
 public class KubernetsConfig {
 
   @Bean
   ApiClient apiClient() throws IOException {
-    return Config.defaultClient();
+    ApiClient apiClient = Config.defaultClient();
+    apiClient.setHttpClient(apiClient.getHttpClient().newBuilder() //
+        .addInterceptor(new KubernetesApiMetricsInterceptor()) //
+        .build());
+    return apiClient;
   }
 
   @Bean
@@ -50,4 +57,14 @@ public class KubernetsConfig {
     return new Exec(apiClient);
   }
 
+  @Bean
+  SharedInformerFactory sharedInformerFactory(ApiClient apiClient) {
+    // Le watch restano aperte per minuti: client dedicato senza read timeout,
+    // così quello condiviso con le altre API resta invariato
+    OkHttpClient watchClient = apiClient.getHttpClient().newBuilder() //
+        .readTimeout(0, TimeUnit.SECONDS) //
+        .build();
+    return new SharedInformerFactory(new ApiClient(watchClient));
+  }
+
 }
@@ -1,7 +1,13 @@
 package it.lorisdemicheli.minecraft_servers_controller.config;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.util.unit.DataSize;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -13,4 +19,200 @@ public class MinecraftServerOptions {
   private String namespace = "minecraft-servers";
   private String baseDomain = "lorisdemicheli.it";
   private String curseForgeApiKey; // Necessario per modpack CurseForge
+
+  private Cache cache = new Cache();
+  private Events events = new Events();
+  private Ping ping = new Ping();
+  private Rcon rcon = new Rcon();
+  private Console console = new Console();
+  private ShellSession shellSession = new ShellSession();
+  private ListingCache listingCache = new ListingCache();
+  private FileOperations fileOperations = new FileOperations();
+  private Search search = new Search();
+  private Upload upload = new Upload();
+  private Transfer transfer = new Transfer();
+  private Sync sync = new Sync();
+  private BlobStore blobStore = new BlobStore();
+  private Logs logs = new Logs();
+  private LogStore logStore = new LogStore();
+  private LogMetrics logMetrics = new LogMetrics();
+
+  @Getter
+  @Setter
+  public static class Cache {
+    private boolean enabled = true;
+    private Duration resyncPeriod = Duration.ofMinutes(5);
+  }
+
+  @Getter
+  @Setter
+  public static class Events {
+    private Duration coalesceWindow = Duration.ofMillis(500);
+    private int historySize = 1000;
+  }
+
+  @Getter
+  @Setter
+  public static class Ping {
+    private Duration timeout = Duration.ofSeconds(3);
+    private int maxConcurrent = 32;
+    private int threads = 2;
+  }
+
+  @Getter
+  @Setter
+  public static class Rcon {
+    private boolean enabled = true;
+    private int port = 25575;
+    private String secret; // Segreto da cui derivare le password RCON dei server
+    private int connectionsPerServer = 2;
+    private Duration timeout = Duration.ofSeconds(5);
+    private Duration initialBackoff = Duration.ofSeconds(1);
+    private Duration maxBackoff = Duration.ofMinutes(1);
+  }
+
+  @Getter
+  @Setter
+  public static class Console {
+    private int maxBatchSize = 500;
+    // Attesa massima prima di un comando e durata massima di un batch, attese comprese
+    private Duration maxCommandDelay = Duration.ofMinutes(1);
+    private Duration maxBatchDuration = Duration.ofMinutes(5);
+    // Oltre questi limiti un client WebSocket che non riceve viene disconnesso
+    private Duration webSocketSendTimeout = Duration.ofSeconds(10);
+    private DataSize webSocketBufferSize = DataSize.ofMegabytes(1);
+  }
+
+  @Getter
+  @Setter
+  public static class ShellSession {
+    private boolean enabled = true;
+    private int maxSessionsPerPod = 2;
+    private Duration commandTimeout = Duration.ofSeconds(15);
+    private Duration idleTimeout = Duration.ofMinutes(5);
+    private Duration healthCheckInterval = Duration.ofSeconds(30);
+  }
+
+  @Getter
+  @Setter
+  public static class ListingCache {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofSeconds(30);
+    private int maxDirectoriesPerServer = 256;
+    // Le cartelle più grandi non vengono messe in cache
+    private int maxEntriesPerDirectory = 10000;
+  }
+
+  @Getter
+  @Setter
+  public static class FileOperations {
+    private int maxBatchSize = 1000;
+    // Le operazioni ancora da eseguire allo scadere vengono saltate
+    private Duration timeout = Duration.ofMinutes(5);
+  }
+
+  @Getter
+  @Setter
+  public static class Search {
+    // La ricerca viene terminata nel pod allo scadere del tempo, anche se il client è ancora collegato
+    private Duration timeout = Duration.ofSeconds(30);
+    private int maxMatches = 1000;
+    private DataSize maxFileSize = DataSize.ofMegabytes(1);
+    private int maxContext = 5;
+  }
+
+  @Getter
+  @Setter
+  public static class Upload {
+    private DataSize maxSize = DataSize.ofGigabytes(16);
+    private DataSize defaultChunkSize = DataSize.ofMegabytes(8);
+    private DataSize maxChunkSize = DataSize.ofMegabytes(64);
+    // Sessioni di upload a chunk senza attività da più di così vengono annullate
+    private Duration sessionTimeout = Duration.ofHours(24);
+    private Duration finalizeTimeout = Duration.ofMinutes(10);
+  }
+
+  @Getter
+  @Setter
+  public static class Transfer {
+    private boolean compression = true;
+    // Livello gzip basso: il limite è il tunnel dell'API server, non la CPU del pod
+    private int compressionLevel = 1;
+    private DataSize minCompressedSize = DataSize.ofKilobytes(16);
+    private List<String> incompressibleExtensions = List.of("jar", "mca", "mcr", "zip", "gz",
+        "tgz", "zst", "xz", "bz2", "7z", "rar", "png", "jpg", "jpeg", "gif", "webp", "ogg", "mp3");
+  }
+
+  @Getter
+  @Setter
+  public static class Sync {
+    private DataSize blockSize = DataSize.ofKilobytes(64);
+    private DataSize maxBlockSize = DataSize.ofMegabytes(1);
+    // Firme e verifica finale leggono tutto il file nel pod
+    private Duration timeout = Duration.ofMinutes(10);
+  }
+
+  @Getter
+  @Setter
+  public static class BlobStore {
+    private boolean enabled = true;
+    // Va su un volume persistente, nel chart controller.persistence: senza lo store è spento
+    private String directory;
+    private DataSize maxSize = DataSize.ofGigabytes(10);
+  }
+
+  @Getter
+  @Setter
+  public static class Logs {
+    // Limiti del buffer in memoria di ogni server: vale il primo raggiunto
+    private int bufferLines = 10_000;
+    private DataSize bufferSize = DataSize.ofMegabytes(2);
+    // Righe ripetute a chi si collega senza indicare tail o since
+    private int defaultTail = 10;
+    private Duration reconnectDelay = Duration.ofSeconds(2);
+    // Le righe vengono inviate in frame da al più batchSize righe o ogni batchInterval
+    private int batchSize = 256;
+    private Duration batchInterval = Duration.ofMillis(100);
+    // Righe che un client può avere in arretrato prima che si applichi slowConsumerPolicy
+    private int maxSubscriberLag = 5_000;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+    private int maxAggregatedServers = 100;
+
+    public enum SlowConsumerPolicy {
+      DROP_OLDEST, DISCONNECT
+    }
+  }
+
+  @Getter
+  @Setter
+  public static class LogStore {
+    private boolean enabled = true;
+    // Va su un volume persistente, nel chart controller.persistence: senza lo storico è spento
+    private String directory;
+    private DataSize segmentSize = DataSize.ofMegabytes(16);
+    private Duration segmentDuration = Duration.ofHours(6);
+    // Distanza tra le voci dell'indice; è anche il blocco gzip dei segmenti chiusi
+    private DataSize indexInterval = DataSize.ofKilobytes(64);
+    private Duration maxAge = Duration.ofDays(7);
+    private DataSize maxSizePerServer = DataSize.ofMegabytes(512);
+    private int maxMatches = 10_000;
+  }
+
+  @Getter
+  @Setter
+  public static class LogMetrics {
+    private boolean enabled = true;
+    // Sostituiscono i pattern predefiniti di un tipo di server, es. patterns.PLUGIN.join
+    private Map<Type, Patterns> patterns = new HashMap<>();
+
+    // Regex cercate nella riga intera, con i gruppi nominati ms e ticks, seconds, player
+    @Getter
+    @Setter
+    public static class Patterns {
+      private String tickLag;
+      private String startup;
+      private String join;
+      private String leave;
+    }
+  }
 }
@@ -28,6 +28,9 @@ public class SecurityConfig {
                 "/swagger-resources/**", "/webjars/**")
             .permitAll()
 
+            // Prometheus legge le metriche senza credenziali
+            .requestMatchers("/metrics").permitAll()
+
             // Tutto il resto richiede autenticazione
             .anyRequest().authenticated())
 
@@ -0,0 +1,22 @@
+package it.lorisdemicheli.minecraft_servers_controller.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import it.lorisdemicheli.minecraft_servers_controller.controller.ConsoleWebSocketHandler;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+  @Autowired
+  private ConsoleWebSocketHandler consoleHandler;
+
+  @Override
+  public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+    // L'handshake passa dalla stessa autenticazione Basic delle API REST
+    registry.addHandler(consoleHandler, ConsoleWebSocketHandler.PATH);
+  }
+}
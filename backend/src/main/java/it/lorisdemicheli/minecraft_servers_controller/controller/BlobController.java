@@ -0,0 +1,38 @@
+package it.lorisdemicheli.minecraft_servers_controller.controller;
+
+import java.io.InputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import it.lorisdemicheli.minecraft_servers_controller.annotation.Api;
+import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
+
+@Api
+@RestController
+@RequestMapping("/blobs")
+public class BlobController {
+
+	@Autowired
+	private KubernetesServerInstanceService service;
+
+	@RequestMapping(path = "/{sha256}", method = RequestMethod.HEAD)
+	public ResponseEntity<Void> getBlob(@PathVariable String sha256) {
+		Long size = service.getBlobSize(sha256);
+		if (size == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().contentLength(size).build();
+	}
+
+	@PutMapping(path = "/{sha256}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<Void> putBlob(@PathVariable String sha256,
+			@RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+			InputStream content) {
+		service.storeBlob(sha256, content, contentLength);
+		return ResponseEntity.noContent().build();
+	}
+}
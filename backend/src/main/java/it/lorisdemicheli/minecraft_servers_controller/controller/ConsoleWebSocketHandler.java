@@ -0,0 +1,176 @@
+package it.lorisdemicheli.minecraft_servers_controller.controller;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BatchCommand;
+import it.lorisdemicheli.minecraft_servers_controller.domain.CommandResult;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ConsoleFrame;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ConsoleRequest;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceNotFoundException;
+import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+/**
+ * Console su una sola connessione WebSocket per scheda del browser: il server invia i frame di log
+ * come {@code /console/logs}, il client invia comandi {@code {"id": "1", "command": "list"}} e
+ * riceve il risultato con lo stesso id. I comandi di una connessione vengono eseguiti in ordine.
+ * Il log arriva dal lettore condiviso del server, quindi i client collegati non aprono altri stream
+ * verso il kubelet. Accetta gli stessi parametri {@code tail} e {@code since} dello stream SSE.
+ */
+@Component
+public class ConsoleWebSocketHandler extends TextWebSocketHandler {
+
+	public static final String PATH = "/servers/*/console/ws";
+
+	private static final UriTemplate TEMPLATE = new UriTemplate("/servers/{serverName}/console/ws");
+	private static final String CONSOLE = "console";
+
+	@Autowired
+	private KubernetesServerInstanceService service;
+	@Autowired
+	private MinecraftServerOptions serverOptions;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Override
+	public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+		String serverName = TEMPLATE.match(session.getUri().getPath()).get("serverName");
+		MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getUri()) //
+				.build() //
+				.getQueryParams();
+		Integer tail;
+		Instant since;
+		try {
+			tail = params.containsKey("tail") ? Integer.valueOf(params.getFirst("tail")) : null;
+			since = params.containsKey("since") ? Instant.parse(params.getFirst("since")) : null;
+		} catch (NumberFormatException | DateTimeParseException e) {
+			session.close(CloseStatus.BAD_DATA.withReason("Invalid tail or since"));
+			return;
+		}
+
+		Flux<List<String>> batches;
+		try {
+			batches = service.logBatches(serverName, tail, since);
+		} catch (ResourceNotFoundException e) {
+			session.close(CloseStatus.POLICY_VIOLATION.withReason("Server not found"));
+			return;
+		} catch (ConfigurationException e) {
+			session.close(CloseStatus.BAD_DATA.withReason(e.getMessage()));
+			return;
+		}
+
+		// Log e risultati dei comandi arrivano da thread diversi
+		MinecraftServerOptions.Console options = serverOptions.getConsole();
+		WebSocketSession out = new ConcurrentWebSocketSessionDecorator(session, //
+				(int) options.getWebSocketSendTimeout().toMillis(), //
+				(int) options.getWebSocketBufferSize().toBytes());
+		// Coda limitata: oltre maxBatchSize comandi in attesa il client riceve un errore
+		Sinks.Many<ConsoleRequest> commands = Sinks.many().unicast() //
+				.onBackpressureBuffer(Queues.<ConsoleRequest>get(options.getMaxBatchSize()).get());
+
+		// Un frame alla volta: se il client è lento le righe restano nel buffer del server e si
+		// applica la politica per i client lenti
+		Disposable logs = batches //
+				.publishOn(Schedulers.boundedElastic(), 1) //
+				.subscribe( //
+						lines -> send(out, ConsoleFrame.logs(lines)), //
+						e -> close(out, CloseStatus.SERVER_ERROR), //
+						() -> close(out, CloseStatus.NORMAL));
+		Disposable results = commands.asFlux() //
+				.concatMap(request -> Mono.fromCallable(() -> execute(serverName, request)) //
+						.subscribeOn(Schedulers.boundedElastic()), 1) //
+				.subscribe(frame -> send(out, frame));
+
+		session.getAttributes().put(CONSOLE, new Console(out, commands, Disposables.composite(logs, results)));
+	}
+
+	@Override
+	protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+		Console console = (Console) session.getAttributes().get(CONSOLE);
+		if (console == null) {
+			return;
+		}
+		ConsoleRequest request;
+		try {
+			request = objectMapper.readValue(message.getPayload(), ConsoleRequest.class);
+		} catch (JsonProcessingException e) {
+			send(console.out(), ConsoleFrame.error(null, "Invalid message"));
+			return;
+		}
+		if (request.command() == null || request.command().isBlank()) {
+			send(console.out(), ConsoleFrame.error(request.id(), "A command is required"));
+			return;
+		}
+		EmitResult emitted = console.commands().tryEmitNext(request);
+		if (emitted == EmitResult.FAIL_OVERFLOW) {
+			send(console.out(), ConsoleFrame.error(request.id(), "Too many queued commands"));
+		} else if (emitted.isFailure()) {
+			send(console.out(), ConsoleFrame.error(request.id(), "Console closed"));
+		}
+	}
+
+	@Override
+	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+		Console console = (Console) session.getAttributes().remove(CONSOLE);
+		if (console != null) {
+			console.commands().tryEmitComplete();
+			console.subscriptions().dispose();
+		}
+	}
+
+	private ConsoleFrame execute(String serverName, ConsoleRequest request) {
+		try {
+			CommandResult result = service //
+					.sendCommands(serverName, List.of(new BatchCommand(request.command(), 0))) //
+					.getFirst();
+			return ConsoleFrame.result(request.id(), result);
+		} catch (RuntimeException e) {
+			return ConsoleFrame.error(request.id(), e.getMessage());
+		}
+	}
+
+	private void send(WebSocketSession session, ConsoleFrame frame) {
+		try {
+			session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+		} catch (IOException | RuntimeException e) {
+			// Connessione chiusa o client troppo lento: il decorator chiude la sessione
+		}
+	}
+
+	private static void close(WebSocketSession session, CloseStatus status) {
+		try {
+			session.close(status);
+		} catch (IOException e) {
+			// già chiusa
+		}
+	}
+
+	private record Console(WebSocketSession out, Sinks.Many<ConsoleRequest> commands, Disposable subscriptions) {
+	}
+}
@@ -0,0 +1,35 @@
+package it.lorisdemicheli.minecraft_servers_controller.controller;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import it.lorisdemicheli.minecraft_servers_controller.annotation.Api;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerLogLine;
+import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
+import reactor.core.publisher.Flux;
+
+@Api
+@RestController
+@RequestMapping("/logs")
+public class LogController {
+
+	@Autowired
+	private KubernetesServerInstanceService service;
+
+	@GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<List<ServerLogLine>> streamLogs( //
+			@RequestParam(required = false) List<String> server, //
+			@RequestParam(required = false) String label, //
+			@RequestParam(required = false) List<String> level, //
+			@RequestParam(required = false) Integer tail, //
+			@RequestParam(required = false) Instant since) {
+		return service.aggregatedLogs(server, label, level, tail, since);
+	}
+}
@@ -0,0 +1,22 @@
+package it.lorisdemicheli.minecraft_servers_controller.controller;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+@RestController
+public class MetricsController {
+
+	@GetMapping(value = "/metrics", produces = TextFormat.CONTENT_TYPE_004)
+	public ResponseEntity<String> metrics() throws IOException {
+		StringWriter writer = new StringWriter();
+		TextFormat.write004(writer, CollectorRegistry.defaultRegistry.metricFamilySamples());
+		return ResponseEntity.ok(writer.toString());
+	}
+}
@@ -1,5 +1,8 @@
 package it.lorisdemicheli.minecraft_servers_controller.controller;
 
+import java.time.Instant;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -8,9 +11,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import it.lorisdemicheli.minecraft_servers_controller.annotation.Api;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BatchCommand;
+import it.lorisdemicheli.minecraft_servers_controller.domain.CommandResult;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogRecord;
 import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
 import reactor.core.publisher.Flux;
 
@@ -22,16 +29,38 @@ public class ServerConsoleController {
 	@Autowired
 	private KubernetesServerInstanceService service;
 
-	@PostMapping(value = "/commands", consumes = MediaType.TEXT_PLAIN_VALUE)
-	public ResponseEntity<Void> executeCommand( //
+	@PostMapping(value = "/commands", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<String> executeCommand( //
 			@PathVariable String serverName, //
 			@RequestBody String command) {
-		service.sendCommand(serverName, command);
-		return ResponseEntity.noContent().build();
+		String output = service.sendCommand(serverName, command);
+		if (output == null) {
+			return ResponseEntity.noContent().build();
+		}
+		return ResponseEntity.ok(output);
+	}
+
+	@PostMapping(value = "/commands/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public List<CommandResult> executeCommands( //
+			@PathVariable String serverName, //
+			@RequestBody List<BatchCommand> commands) {
+		return service.sendCommands(serverName, commands);
 	}
 
 	@GetMapping(value = "/logs", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-	public Flux<String> streamLogs(@PathVariable String serverName) {
-		return service.logs(serverName);
+	public Flux<String> streamLogs(@PathVariable String serverName, //
+			@RequestParam(required = false) Integer tail, //
+			@RequestParam(required = false) Instant since) {
+		return service.logs(serverName, tail, since);
+	}
+
+	@GetMapping(value = "/logs/history", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<LogRecord> logHistory(@PathVariable String serverName, //
+			@RequestParam(required = false) Instant from, //
+			@RequestParam(required = false) Instant to, //
+			@RequestParam(required = false) String regex, //
+			@RequestParam(defaultValue = "false") boolean ignoreCase, //
+			@RequestParam(required = false) Integer limit) {
+		return service.logHistory(serverName, from, to, regex, ignoreCase, limit);
 	}
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.MvcUriComponentsBuilder;
 
@@ -13,8 +14,11 @@ import it.lorisdemicheli.minecraft_servers_controller.annotation.Api;
 import it.lorisdemicheli.minecraft_servers_controller.domain.ConfigurableOptions;
 import it.lorisdemicheli.minecraft_servers_controller.domain.Server;
 import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerStateEvent;
 import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
 import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
+import it.lorisdemicheli.minecraft_servers_controller.service.ServerEventService;
+import reactor.core.publisher.Flux;
 
 @Api
 @RestController
@@ -23,6 +27,8 @@ public class ServerController {
 
 	@Autowired
 	private KubernetesServerInstanceService service;
+	@Autowired
+	private ServerEventService eventService;
 
 	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<List<Server>> getAllServers() {
@@ -61,6 +67,18 @@ public class ServerController {
 		return ResponseEntity.ok(service.getServerInfo(serverName));
 	}
 
+	@GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<ServerStateEvent>> streamEvents( //
+			@RequestParam(required = false) List<String> server, //
+			@RequestParam(required = false) String cursor, //
+			@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+		return eventService.events(server, cursor != null ? cursor : lastEventId) //
+				.map(event -> ServerSentEvent.builder(event) //
+						.id(event.id()) //
+						.event("state") //
+						.build());
+	}
+
 	@PostMapping(value = "/{serverName}/start")
 	public ResponseEntity<Void> startServer(@PathVariable String serverName) {
 		service.startServer(serverName);
@@ -1,9 +1,17 @@
 package it.lorisdemicheli.minecraft_servers_controller.controller;
 
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.commons.lang3.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -11,35 +19,166 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import it.lorisdemicheli.minecraft_servers_controller.annotation.Api;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ArchiveFormat;
 import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry.FileType;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperation;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperationResult;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FilePage;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileSort;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileStat;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SearchMatch;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SyncReport;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadRequest;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadSession;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
 import it.lorisdemicheli.minecraft_servers_controller.service.KubernetesServerInstanceService;
+import reactor.core.publisher.Flux;
 
 @Api
 @RestController
 @RequestMapping("/servers/{serverName}/files")
 public class ServerFileController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String CHUNK_SHA256_HEADER = "X-Chunk-Sha256";
+    private static final String CONTENT_SHA256_HEADER = "X-Content-Sha256";
+
     @Autowired
     private KubernetesServerInstanceService service;
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<List<FileEntry>> listFiles(
             @PathVariable String serverName,
-            @RequestParam(defaultValue = "/") String path) {
-        return ResponseEntity.ok(service.listFiles(serverName, path));
+            @RequestParam(defaultValue = "/") String path,
+            @RequestParam(defaultValue = "NAME") FileSort sort,
+            @RequestParam(defaultValue = "false") boolean desc,
+            @RequestParam(required = false) Set<FileType> type,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        FilePage page = service.listFiles(serverName, path, sort, desc, type, limit, cursor);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.entries());
+    }
+
+    @GetMapping(value = "/tree", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<FileEntry> listTree(
+            @PathVariable String serverName,
+            @RequestParam(defaultValue = "/") String path,
+            @RequestParam(required = false) Integer depth,
+            @RequestParam(required = false) List<String> glob,
+            @RequestParam(defaultValue = "false") boolean hidden) {
+        return service.walkFiles(serverName, path, depth, glob, hidden);
+    }
+
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<SearchMatch> searchFiles(
+            @PathVariable String serverName,
+            @RequestParam(defaultValue = "/") String path,
+            @RequestParam String regex,
+            @RequestParam(required = false) List<String> glob,
+            @RequestParam(defaultValue = "false") boolean ignoreCase,
+            @RequestParam(required = false) Integer maxMatches,
+            @RequestParam(required = false) Long maxFileSize,
+            @RequestParam(required = false) Integer context) {
+        return service.searchFiles(serverName, path, regex, glob, ignoreCase, maxMatches, maxFileSize, context);
     }
 
     @GetMapping(value = "/content", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
     public ResponseEntity<StreamingResponseBody> downloadFile(
             @PathVariable String serverName,
-            @RequestParam String path) {
-        
+            @RequestParam String path,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) {
+
         String filename = path.contains("/") ? path.substring(path.lastIndexOf("/") + 1) : path;
-        
+        FileStat stat = service.statFile(serverName, path);
+        if (stat.directory()) {
+            throw new ConfigurationException("Path is a directory");
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(stat.etag());
+        headers.setLastModified(stat.lastModified() * 1000);
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+
+        // Con If-Range non più valido, o più intervalli richiesti, si invia il file intero
+        List<HttpRange> ranges = range != null && rangeStillValid(ifRange, stat)
+                ? parseRanges(range)
+                : List.of();
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(stat.size());
+            // HttpRange non rifiuta un inizio oltre la fine del file, né nessun intervallo su un
+            // file vuoto: lo limita e restituisce una fine precedente all'inizio
+            if (start >= stat.size()) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + stat.size())
+                        .build();
+            }
+            long end = ranges.get(0).getRangeEnd(stat.size());
+            long length = end - start + 1;
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + stat.size());
+            headers.setContentLength(length);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .headers(headers)
+                    .body(out -> service.downloadFile(serverName, path, start, length, out));
+        }
+
+        headers.setContentLength(stat.size());
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(out -> service.downloadFile(serverName, path, stat.size(), out));
+    }
+
+    @GetMapping(value = "/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(
+            @PathVariable String serverName,
+            @RequestParam(defaultValue = "/") String path,
+            @RequestParam(defaultValue = "tar.gz") String format,
+            @RequestParam(required = false) Integer level,
+            @RequestParam(required = false) List<String> include,
+            @RequestParam(required = false) List<String> exclude) {
+
+        ArchiveFormat archiveFormat = ArchiveFormat.fromExtension(format);
+        int compressionLevel = archiveFormat.level(level);
+        service.checkArchive(serverName, path, archiveFormat);
+        String name = Strings.CS.removeEnd(path, "/");
+        name = name.contains("/") ? name.substring(name.lastIndexOf("/") + 1) : name;
+        String filename = (name.isEmpty() || name.equals(".") ? serverName : name) + "." + archiveFormat.getExtension();
+
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(out -> service.downloadFile(serverName, path, out));
+                .contentType(MediaType.parseMediaType(archiveFormat.getMediaType()))
+                .body(out -> service.downloadArchive(serverName, path, archiveFormat, compressionLevel, include, exclude, out));
+    }
+
+    // Un header Range non valido va ignorato
+    private static List<HttpRange> parseRanges(String range) {
+        try {
+            return HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    private static boolean rangeStillValid(String ifRange, FileStat stat) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(stat.etag());
+        }
+        try {
+            return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toEpochSecond() == stat.lastModified();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -51,6 +190,87 @@ public class ServerFileController {
         return ResponseEntity.noContent().build();
     }
 
+    @PutMapping(value = "/content", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> uploadContent(
+            @PathVariable String serverName,
+            @RequestParam String path,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            @RequestHeader(value = CONTENT_SHA256_HEADER, required = false) String sha256,
+            InputStream content) {
+        service.uploadFile(serverName, path, content, contentLength, sha256);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping(value = "/blobs/{sha256}")
+    public ResponseEntity<Void> pushBlob(
+            @PathVariable String serverName,
+            @PathVariable String sha256,
+            @RequestParam String path) {
+        service.pushBlob(serverName, path, sha256);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PutMapping(value = "/sync", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<SyncReport> syncFile(
+            @PathVariable String serverName,
+            @RequestParam String path,
+            @RequestParam(required = false) Integer blockSize,
+            @RequestParam(defaultValue = "false") boolean dryRun,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            InputStream content) {
+        return ResponseEntity.ok(service.syncFile(serverName, path, content, contentLength, blockSize, dryRun));
+    }
+
+    @PostMapping(value = "/uploads", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<UploadSession> createUpload(
+            @PathVariable String serverName,
+            @RequestBody UploadRequest request) {
+        return ResponseEntity.ok(service.createUpload(serverName, request));
+    }
+
+    @GetMapping(value = "/uploads/{uploadId}")
+    public ResponseEntity<UploadSession> getUpload(
+            @PathVariable String serverName,
+            @PathVariable String uploadId) {
+        return ResponseEntity.ok(service.getUpload(serverName, uploadId));
+    }
+
+    @PutMapping(value = "/uploads/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadSession> uploadChunk(
+            @PathVariable String serverName,
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            @RequestHeader(value = CHUNK_SHA256_HEADER, required = false) String sha256,
+            InputStream content) {
+        return ResponseEntity.ok(service.uploadChunk(serverName, uploadId, index, content, contentLength, sha256));
+    }
+
+    @PostMapping(value = "/uploads/{uploadId}/complete")
+    public ResponseEntity<Void> completeUpload(
+            @PathVariable String serverName,
+            @PathVariable String uploadId,
+            @RequestParam(required = false) String sha256) {
+        service.completeUpload(serverName, uploadId, sha256);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping(value = "/uploads/{uploadId}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String serverName,
+            @PathVariable String uploadId) {
+        service.abortUpload(serverName, uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<FileOperationResult>> executeOperations(
+            @PathVariable String serverName,
+            @RequestBody List<FileOperation> operations,
+            @RequestParam(defaultValue = "false") boolean stopOnFailure) {
+        return ResponseEntity.ok(service.executeFileOperations(serverName, operations, stopOnFailure));
+    }
+
     @PostMapping(value = "/directory")
     public ResponseEntity<Void> createDirectory(
             @PathVariable String serverName, 
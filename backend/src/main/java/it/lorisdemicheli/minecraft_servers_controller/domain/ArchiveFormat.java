@@ -0,0 +1,45 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.util.Arrays;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import lombok.Getter;
+
+@Getter
+public enum ArchiveFormat {
+  TAR_GZ("tar.gz", "application/gzip", 1, 9, 6), //
+  TAR_ZST("tar.zst", "application/zstd", 1, 19, 3), //
+  ZIP("zip", "application/zip", 0, 9, 6);
+
+  private final String extension;
+  private final String mediaType;
+  private final int minLevel;
+  private final int maxLevel;
+  private final int defaultLevel;
+
+  ArchiveFormat(String extension, String mediaType, int minLevel, int maxLevel,
+      int defaultLevel) {
+    this.extension = extension;
+    this.mediaType = mediaType;
+    this.minLevel = minLevel;
+    this.maxLevel = maxLevel;
+    this.defaultLevel = defaultLevel;
+  }
+
+  public static ArchiveFormat fromExtension(String extension) {
+    return Arrays.stream(values()) //
+        .filter(f -> f.extension.equalsIgnoreCase(extension)) //
+        .findFirst() //
+        .orElseThrow(() -> new ConfigurationException("Unsupported archive format " + extension));
+  }
+
+  public int level(Integer level) {
+    if (level == null) {
+      return defaultLevel;
+    }
+    if (level < minLevel || level > maxLevel) {
+      throw new ConfigurationException(
+          "Compression level for " + extension + " must be between " + minLevel + " and " + maxLevel);
+    }
+    return level;
+  }
+}
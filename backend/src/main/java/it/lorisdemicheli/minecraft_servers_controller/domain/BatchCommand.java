@@ -0,0 +1,7 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * @param delayMillis attesa prima dell'invio del comando
+ */
+public record BatchCommand(String command, long delayMillis) {
+}
@@ -0,0 +1,10 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * Firma di un blocco del file nel pod, come in rsync.
+ *
+ * @param weak checksum debole scorrevole, {@code b << 16 | a}
+ * @param strong md5 esadecimale del blocco
+ */
+public record BlockSignature(int length, int weak, String strong) {
+}
@@ -0,0 +1,5 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+public record CommandResult(String command, boolean success, String output, String error,
+    long durationMillis) {
+}
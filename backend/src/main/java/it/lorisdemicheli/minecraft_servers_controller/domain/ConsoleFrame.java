@@ -0,0 +1,28 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.util.List;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Messaggio inviato sulla console WebSocket: righe di log, risultato di un comando o errore.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ConsoleFrame(Type type, List<String> lines, String id, CommandResult result,
+    String error) {
+
+  public enum Type {
+    LOGS, RESULT, ERROR
+  }
+
+  public static ConsoleFrame logs(List<String> lines) {
+    return new ConsoleFrame(Type.LOGS, lines, null, null, null);
+  }
+
+  public static ConsoleFrame result(String id, CommandResult result) {
+    return new ConsoleFrame(Type.RESULT, null, id, result, null);
+  }
+
+  public static ConsoleFrame error(String id, String error) {
+    return new ConsoleFrame(Type.ERROR, null, id, null, error);
+  }
+}
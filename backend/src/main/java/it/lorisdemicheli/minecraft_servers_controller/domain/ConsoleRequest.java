@@ -0,0 +1,9 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * Comando inviato sulla console WebSocket.
+ *
+ * @param id scelto dal client, viene ripetuto nel risultato
+ */
+public record ConsoleRequest(String id, String command) {
+}
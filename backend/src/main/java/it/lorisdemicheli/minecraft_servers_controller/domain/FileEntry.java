@@ -4,18 +4,26 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 
-public record FileEntry(String name, FileType type, long sizeBytes, LocalDateTime lastModified) {
+public record FileEntry(String name, FileType type, long sizeBytes, LocalDateTime lastModified,
+    String path) {
   public enum FileType {
     FILE, DIRECTORY, OTHER
   }
 
-  public static FileEntry fromStat(String fullPath, String typeStr, long size, long unixTime) {
-    String fileName = fullPath.substring(fullPath.lastIndexOf('/') + 1);
-    FileType fileType =
-        typeStr.toLowerCase().contains("directory") ? FileType.DIRECTORY : FileType.FILE;
+  /**
+   * @param path percorso dalla radice del server, es. {@code /world/region/r.0.0.mca}
+   * @param type tipo nel formato {@code %y} di {@code find}
+   */
+  public static FileEntry fromFind(String path, char type, long size, long unixTime) {
+    String fileName = path.substring(path.lastIndexOf('/') + 1);
+    FileType fileType = switch (type) {
+      case 'd' -> FileType.DIRECTORY;
+      case 'f' -> FileType.FILE;
+      default -> FileType.OTHER;
+    };
     LocalDateTime ldt =
         LocalDateTime.ofInstant(Instant.ofEpochSecond(unixTime), ZoneId.systemDefault());
 
-    return new FileEntry(fileName, fileType, size, ldt);
+    return new FileEntry(fileName, fileType, size, ldt, path);
   }
 }
@@ -0,0 +1,10 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * @param target destinazione, solo per {@link Type#MOVE} e {@link Type#COPY}
+ */
+public record FileOperation(Type type, String path, String target) {
+  public enum Type {
+    MKDIR, DELETE, TOUCH, MOVE, COPY
+  }
+}
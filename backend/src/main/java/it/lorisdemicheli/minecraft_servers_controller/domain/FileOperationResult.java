@@ -0,0 +1,7 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+public record FileOperationResult(FileOperation operation, Status status, String error) {
+  public enum Status {
+    OK, FAILED, SKIPPED
+  }
+}
@@ -0,0 +1,41 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+
+/**
+ * @param nextCursor da passare alla richiesta successiva, {@code null} se è l'ultima pagina
+ */
+public record FilePage(List<FileEntry> entries, String nextCursor) {
+
+  /**
+   * Il cursore è l'ultima voce della pagina, legata all'ordinamento con cui è stata prodotta.
+   */
+  public static String encodeCursor(FileEntry last, FileSort sort, boolean descending) {
+    String cursor = String.join("|", sort.name(), Boolean.toString(descending),
+        Long.toString(last.sizeBytes()), last.lastModified().toString(), last.name());
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static FileEntry decodeCursor(String cursor, FileSort sort, boolean descending) {
+    String[] p;
+    try {
+      p = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 5);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException("Invalid cursor", e);
+    }
+    if (p.length != 5 || !p[0].equals(sort.name()) || Boolean.parseBoolean(p[1]) != descending) {
+      throw new ConfigurationException("Cursor does not match the requested sort");
+    }
+    try {
+      return new FileEntry(p[4], null, Long.parseLong(p[2]), LocalDateTime.parse(p[3]), null);
+    } catch (NumberFormatException | DateTimeParseException e) {
+      throw new ConfigurationException("Invalid cursor", e);
+    }
+  }
+}
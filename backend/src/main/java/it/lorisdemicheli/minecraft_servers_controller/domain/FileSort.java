@@ -0,0 +1,24 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.util.Comparator;
+
+public enum FileSort {
+  NAME(Comparator.comparing(FileEntry::name)), //
+  SIZE(Comparator.comparingLong(FileEntry::sizeBytes)), //
+  MTIME(Comparator.comparing(FileEntry::lastModified));
+
+  private final Comparator<FileEntry> key;
+
+  FileSort(Comparator<FileEntry> key) {
+    this.key = key;
+  }
+
+  /**
+   * Ordinamento totale: a parità di chiave decide il nome, unico nella cartella, così il cursore
+   * di paginazione individua sempre una posizione precisa.
+   */
+  public Comparator<FileEntry> comparator(boolean descending) {
+    Comparator<FileEntry> comparator = key.thenComparing(FileEntry::name);
+    return descending ? comparator.reversed() : comparator;
+  }
+}
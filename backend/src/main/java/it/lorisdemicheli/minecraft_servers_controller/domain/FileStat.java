@@ -0,0 +1,16 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * @param lastModified mtime in secondi Unix
+ */
+public record FileStat(long size, long lastModified, boolean directory) {
+
+  /**
+   * ETag come quello di nginx: cambia se cambiano dimensione o data di modifica. È un validatore
+   * forte perché If-Range accetta solo quelli, anche se due scritture nello stesso secondo con la
+   * stessa dimensione non lo cambiano.
+   */
+  public String etag() {
+    return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+  }
+}
@@ -0,0 +1,36 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public enum LogLevel {
+  TRACE, //
+  DEBUG, //
+  INFO, //
+  WARN, //
+  ERROR, //
+  FATAL //
+  ;
+
+  // "[12:34:56] [Server thread/INFO]: ..." (vanilla, Forge) e "[12:34:56 INFO]: ..." (Paper)
+  private static final Pattern LEVEL = Pattern
+      .compile("\\[(?:[^\\]]*[ /])?(TRACE|DEBUG|INFO|WARN|WARNING|ERROR|SEVERE|FATAL)\\]");
+  private static final int PREFIX_LENGTH = 96;
+
+  /**
+   * @return il livello indicato all'inizio della riga, {@code null} per le righe senza livello
+   *         come quelle degli stack trace
+   */
+  public static LogLevel of(String line) {
+    Matcher matcher = LEVEL.matcher(line);
+    matcher.region(0, Math.min(line.length(), PREFIX_LENGTH));
+    if (!matcher.find()) {
+      return null;
+    }
+    return switch (matcher.group(1)) {
+      case "WARNING" -> WARN;
+      case "SEVERE" -> ERROR;
+      default -> valueOf(matcher.group(1));
+    };
+  }
+}
@@ -0,0 +1,11 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.time.Instant;
+
+/**
+ * @param sequence numero progressivo della riga nel log del server, non si ripete neanche tra un
+ *        riavvio e l'altro del pod
+ * @param timestamp istante in cui la riga è stata scritta, come riportato dal kubelet
+ */
+public record LogLine(long sequence, Instant timestamp, String text) {
+}
@@ -0,0 +1,6 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.time.Instant;
+
+public record LogRecord(Instant timestamp, String text) {
+}
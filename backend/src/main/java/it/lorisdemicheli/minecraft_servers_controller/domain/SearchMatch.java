@@ -0,0 +1,15 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.util.List;
+
+/**
+ * Riga trovata da una ricerca nei file del server.
+ *
+ * @param path percorso dalla radice del server
+ * @param line numero di riga, da 1
+ * @param before righe di contesto precedenti
+ * @param after righe di contesto successive
+ */
+public record SearchMatch(String path, long line, String text, List<String> before,
+    List<String> after) {
+}
@@ -1,5 +1,6 @@
 package it.lorisdemicheli.minecraft_servers_controller.domain;
 
+import java.time.Instant;
 import java.util.List;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
@@ -13,6 +14,7 @@ public class ServerInfo {
   private Players players;
   private Description description;
   private String favicon;
+  private LogStats logStats;
 
   @Getter
   @Setter
@@ -49,4 +51,22 @@ public class ServerInfo {
     private String color;
     private Object extra;
   }
+
+  /**
+   * Dati ricavati dal log del server da quando il controller lo segue.
+   */
+  @Getter
+  @Setter
+  public static class LogStats {
+    // Righe "Can't keep up!"
+    private long tickLagEvents;
+    private long skippedTicks;
+    private long lastTickLagMillis;
+    private Instant lastTickLagAt;
+    // Dalla riga "Done (12.345s)!" dell'ultimo avvio
+    private Double startupSeconds;
+    private Instant startedAt;
+    private long playerJoins;
+    private long playerLeaves;
+  }
 }
@@ -0,0 +1,11 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.time.Instant;
+
+/**
+ * Riga di log di uno stream con più server.
+ *
+ * @param level livello della riga o, per le righe che non lo indicano, dell'ultima che lo indicava
+ */
+public record ServerLogLine(String server, Instant timestamp, LogLevel level, String text) {
+}
@@ -0,0 +1,7 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.time.Instant;
+
+public record ServerStateEvent(String id, String serverName, ServerState state,
+    ServerState previousState, Instant timestamp) {
+}
@@ -0,0 +1,13 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * Esito di una sincronizzazione a delta, o di quella che verrebbe fatta in modalità dry-run.
+ *
+ * @param targetBlocks blocchi del file già presente nel pod, 0 se non esisteva
+ * @param reusedBlocks blocchi copiati dal file già presente invece di essere inviati
+ * @param literalBytes byte nuovi inviati al pod
+ * @param operations operazioni del manifest inviato al pod
+ */
+public record SyncReport(String path, long size, int blockSize, int targetBlocks,
+    long reusedBlocks, long literalBytes, long operations, boolean dryRun) {
+}
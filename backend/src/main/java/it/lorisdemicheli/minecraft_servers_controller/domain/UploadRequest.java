@@ -0,0 +1,8 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+/**
+ * @param chunkSize dimensione dei chunk, se {@code null} quella di default
+ * @param sha256 hash dell'intero file in esadecimale, facoltativo
+ */
+public record UploadRequest(String path, long size, Long chunkSize, String sha256) {
+}
@@ -0,0 +1,11 @@
+package it.lorisdemicheli.minecraft_servers_controller.domain;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Stato di un upload a chunk: il chunk {@code i} copre i byte da {@code i * chunkSize}.
+ */
+public record UploadSession(String id, String path, long size, long chunkSize, int chunkCount,
+    List<Integer> receivedChunks, Instant expiresAt) {
+}
@@ -0,0 +1,8 @@
+package it.lorisdemicheli.minecraft_servers_controller.exception;
+
+import lombok.experimental.StandardException;
+
+@StandardException
+public class PayloadTooLargeException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,198 @@
+package it.lorisdemicheli.minecraft_servers_controller.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connessione RCON autenticata e persistente. Più comandi possono essere in volo
+ * contemporaneamente: ogni comando è seguito da un pacchetto sentinella con id dispari, e poiché il
+ * server risponde in ordine la risposta alla sentinella chiude quella del comando (che Minecraft
+ * può spezzare in più frammenti con lo stesso id).
+ */
+public class RconClient implements Closeable {
+
+  static final int TYPE_RESPONSE = 0;
+  static final int TYPE_COMMAND = 2;
+  static final int TYPE_AUTH_RESPONSE = 2;
+  static final int TYPE_AUTH = 3;
+
+  private static final int AUTH_FAILED = -1;
+  private static final int MAX_PACKET_SIZE = 64 * 1024;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final OutputStream out;
+  private final AtomicInteger ids = new AtomicInteger(2);
+  private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+  private final Duration timeout;
+  private volatile boolean closed = false;
+
+  private RconClient(Socket socket, Duration timeout) throws IOException {
+    this.socket = socket;
+    this.timeout = timeout;
+    this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    this.out = new BufferedOutputStream(socket.getOutputStream());
+  }
+
+  public static RconClient connect(String host, int port, String password, Duration timeout)
+      throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), (int) timeout.toMillis());
+      socket.setSoTimeout((int) timeout.toMillis());
+      socket.setKeepAlive(true);
+      socket.setTcpNoDelay(true);
+
+      RconClient client = new RconClient(socket, timeout);
+      client.authenticate(password);
+
+      // Dopo l'autenticazione la connessione resta aperta senza timeout di lettura
+      socket.setSoTimeout(0);
+      Thread.ofVirtual().name("rcon-" + host).start(client::readLoop);
+      return client;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Invia il comando; la risposta fallisce con {@link TimeoutException} dopo il timeout della
+   * connessione. Un comando scaduto non conta più tra quelli in volo, anche se il server
+   * risponderà più tardi.
+   */
+  public CompletableFuture<String> command(String command) {
+    if (closed) {
+      return CompletableFuture.failedFuture(new IOException("RCON connection closed"));
+    }
+    int id = ids.getAndUpdate(i -> i >= Integer.MAX_VALUE - 2 ? 2 : i + 2);
+    Pending request = new Pending();
+    pending.put(id, request);
+    try {
+      synchronized (out) {
+        writePacket(out, id, TYPE_COMMAND, command);
+        writePacket(out, id + 1, TYPE_RESPONSE, "");
+        out.flush();
+      }
+    } catch (IOException e) {
+      close();
+    }
+    CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+      if (pending.remove(id, request)) {
+        request.future.completeExceptionally(new TimeoutException("RCON command timed out"));
+      }
+    });
+    return request.future;
+  }
+
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  public int inFlight() {
+    return pending.size();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // già chiusa
+    }
+    IOException cause = new IOException("RCON connection closed");
+    pending.values().forEach(p -> p.future.completeExceptionally(cause));
+    pending.clear();
+  }
+
+  private void authenticate(String password) throws IOException {
+    writePacket(out, 1, TYPE_AUTH, password);
+    out.flush();
+    while (true) {
+      Packet packet = readPacket(in);
+      if (packet.type() != TYPE_AUTH_RESPONSE) {
+        continue;
+      }
+      if (packet.id() == AUTH_FAILED) {
+        throw new ProtocolException("RCON authentication failed");
+      }
+      return;
+    }
+  }
+
+  private void readLoop() {
+    try {
+      while (!closed) {
+        Packet packet = readPacket(in);
+        if (packet.id() % 2 == 0) {
+          Pending request = pending.get(packet.id());
+          if (request != null) {
+            request.body.writeBytes(packet.payload());
+          }
+        } else {
+          Pending request = pending.remove(packet.id() - 1);
+          if (request != null) {
+            request.future.complete(request.body.toString(StandardCharsets.UTF_8));
+          }
+        }
+      }
+    } catch (IOException e) {
+      // connessione persa: i comandi in volo falliscono e il pool ne aprirà una nuova
+    } finally {
+      close();
+    }
+  }
+
+  static void writePacket(OutputStream out, int id, int type, String body) throws IOException {
+    byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + payload.length + 2) //
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(4 + 4 + payload.length + 2);
+    buffer.putInt(id);
+    buffer.putInt(type);
+    buffer.put(payload);
+    buffer.put((byte) 0);
+    buffer.put((byte) 0);
+    out.write(buffer.array());
+  }
+
+  static Packet readPacket(DataInputStream in) throws IOException {
+    int length = Integer.reverseBytes(in.readInt());
+    if (length < 10 || length > MAX_PACKET_SIZE) {
+      throw new ProtocolException("Invalid RCON packet length " + length);
+    }
+    int id = Integer.reverseBytes(in.readInt());
+    int type = Integer.reverseBytes(in.readInt());
+    byte[] payload = new byte[length - 10];
+    in.readFully(payload);
+    in.readFully(new byte[2]);
+    return new Packet(id, type, payload);
+  }
+
+  record Packet(int id, int type, byte[] payload) {
+  }
+
+  private static class Pending {
+    private final CompletableFuture<String> future = new CompletableFuture<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+  }
+}
@@ -0,0 +1,177 @@
+package it.lorisdemicheli.minecraft_servers_controller.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.stereotype.Component;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool di connessioni RCON per server. Le connessioni vengono aperte su richiesta fino a
+ * {@code connectionsPerServer} e riusate scegliendo quella con meno comandi in volo; dopo un
+ * tentativo di connessione fallito i nuovi tentativi vengono distanziati con backoff esponenziale.
+ */
+@Component
+public class RconConnectionPool {
+
+  private final MinecraftServerOptions.Rcon options;
+  private final byte[] secret;
+  private final Map<String, ServerConnections> servers = new ConcurrentHashMap<>();
+
+  public RconConnectionPool(MinecraftServerOptions serverOptions) {
+    this.options = serverOptions.getRcon();
+    if (options.getSecret() != null && !options.getSecret().isBlank()) {
+      this.secret = options.getSecret().getBytes(StandardCharsets.UTF_8);
+    } else {
+      // Senza segreto configurato le password cambiano a ogni riavvio del controller
+      this.secret = new byte[32];
+      new SecureRandom().nextBytes(secret);
+    }
+  }
+
+  @PreDestroy
+  void stop() {
+    servers.values().forEach(ServerConnections::retire);
+    servers.clear();
+  }
+
+  public boolean isEnabled() {
+    return options.isEnabled();
+  }
+
+  public int getPort() {
+    return options.getPort();
+  }
+
+  public Duration getTimeout() {
+    return options.getTimeout();
+  }
+
+  /**
+   * Connessione per il server raggiungibile all'indirizzo indicato, anche per una sequenza di
+   * comandi che devono arrivare in ordine sulla stessa sessione.
+   */
+  public RconClient acquire(String serverName, String host) throws IOException {
+    return servers.computeIfAbsent(serverName, k -> new ServerConnections(serverName))
+        .acquire(host);
+  }
+
+  public void evict(String serverName) {
+    ServerConnections connections = servers.remove(serverName);
+    if (connections != null) {
+      connections.retire();
+    }
+  }
+
+  /**
+   * Password RCON del server, derivata dal segreto del controller così da non doverla salvare.
+   */
+  public String passwordFor(String serverName) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+      byte[] digest = mac.doFinal(serverName.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private class ServerConnections {
+    private final String serverName;
+    private final List<RconClient> clients = new ArrayList<>();
+    private String host;
+    private Duration backoff = options.getInitialBackoff();
+    private Instant retryAt = Instant.MIN;
+    private int connecting = 0;
+    private boolean retired = false;
+
+    ServerConnections(String serverName) {
+      this.serverName = serverName;
+    }
+
+    RconClient acquire(String host) throws IOException {
+      RconClient best;
+      synchronized (this) {
+        // Pod ricreato con un altro indirizzo: le vecchie connessioni non servono più
+        if (!host.equals(this.host)) {
+          closeAll();
+          this.host = host;
+          this.backoff = options.getInitialBackoff();
+          this.retryAt = Instant.MIN;
+        }
+        clients.removeIf(client -> !client.isOpen());
+
+        best = clients.stream() //
+            .min(Comparator.comparingInt(RconClient::inFlight)) //
+            .orElse(null);
+        if (best != null && (best.inFlight() == 0
+            || clients.size() + connecting >= options.getConnectionsPerServer())) {
+          return best;
+        }
+        if (Instant.now().isBefore(retryAt)) {
+          if (best != null) {
+            return best;
+          }
+          throw new IOException("RCON unavailable for " + serverName + " until " + retryAt);
+        }
+        connecting++;
+      }
+
+      // Connessione e autenticazione durano fino al timeout: fuori dal lock, così gli altri
+      // comandi continuano a usare le connessioni già aperte
+      RconClient client;
+      try {
+        client = RconClient.connect(host, options.getPort(), passwordFor(serverName),
+            options.getTimeout());
+      } catch (IOException e) {
+        synchronized (this) {
+          connecting--;
+          retryAt = Instant.now().plus(backoff);
+          backoff = backoff.multipliedBy(2);
+          if (backoff.compareTo(options.getMaxBackoff()) > 0) {
+            backoff = options.getMaxBackoff();
+          }
+        }
+        if (best != null) {
+          return best;
+        }
+        throw e;
+      }
+
+      synchronized (this) {
+        connecting--;
+        if (retired || !host.equals(this.host)) {
+          // Server eliminato o pod ricreato durante la connessione
+          client.close();
+          throw new IOException("RCON connection to " + serverName + " is no longer valid");
+        }
+        clients.add(client);
+        backoff = options.getInitialBackoff();
+        return client;
+      }
+    }
+
+    synchronized void closeAll() {
+      clients.forEach(RconClient::close);
+      clients.clear();
+    }
+
+    synchronized void retire() {
+      retired = true;
+      closeAll();
+    }
+  }
+}
@@ -0,0 +1,323 @@
+package it.lorisdemicheli.minecraft_servers_controller.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Description;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Players;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Version;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Client non bloccante del protocollo Server List Ping (handshake + status request) di Minecraft.
+ * Le richieste oltre {@code maxConcurrent} restano in coda finché non si libera un posto, il timeout
+ * copre anche l'attesa in coda.
+ */
+@Component
+public class ServerListPingClient {
+
+  // Ping senza versione specifica: il server risponde comunque con la propria
+  private static final int PROTOCOL_VERSION = -1;
+  private static final int NEXT_STATE_STATUS = 1;
+  private static final int MAX_PACKET_SIZE = 2 * 1024 * 1024;
+
+  private final ObjectReader reader;
+  private final MinecraftServerOptions.Ping options;
+  private final AsynchronousChannelGroup group;
+  // La risoluzione DNS è bloccante: fuori dal pool del gruppo, che serve solo all'I/O
+  private final ExecutorService resolver = Executors.newVirtualThreadPerTaskExecutor();
+  private final Semaphore permits;
+  private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+  public ServerListPingClient(ObjectMapper objectMapper, MinecraftServerOptions serverOptions)
+      throws IOException {
+    this.reader = objectMapper.reader().without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    this.options = serverOptions.getPing();
+    this.group = AsynchronousChannelGroup.withThreadPool(Executors.newFixedThreadPool(
+        options.getThreads(), Thread.ofPlatform().name("server-list-ping-", 0).daemon().factory()));
+    this.permits = new Semaphore(options.getMaxConcurrent());
+  }
+
+  @PreDestroy
+  void stop() throws IOException {
+    group.shutdownNow();
+    resolver.shutdownNow();
+  }
+
+  /**
+   * Interroga il server; il risultato contiene version, players, description e favicon ma non lo
+   * stato, che resta a carico del chiamante.
+   */
+  public CompletableFuture<ServerInfo> ping(String host, int port) {
+    CompletableFuture<ServerInfo> result = new CompletableFuture<>();
+    result.orTimeout(options.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+    Runnable task = () -> {
+      if (result.isDone()) {
+        release();
+        return;
+      }
+      exchange(host, port, result).whenComplete((json, error) -> {
+        release();
+        if (error != null) {
+          result.completeExceptionally(error);
+          return;
+        }
+        try {
+          result.complete(parse(json));
+        } catch (IOException e) {
+          result.completeExceptionally(e);
+        }
+      });
+    };
+
+    if (permits.tryAcquire()) {
+      task.run();
+    } else {
+      waiting.add(task);
+      // Un permesso può essersi liberato tra tryAcquire e add
+      if (permits.tryAcquire()) {
+        release();
+      }
+    }
+    return result;
+  }
+
+  ServerInfo parse(String json) throws IOException {
+    JsonNode root = reader.readTree(json);
+    ServerInfo info = new ServerInfo();
+
+    if (root.hasNonNull("version")) {
+      info.setVersion(reader.treeToValue(root.get("version"), Version.class));
+    }
+    if (root.hasNonNull("players")) {
+      ObjectNode players = root.get("players").deepCopy();
+      if (players.has("sample")) {
+        players.set("Sample", players.remove("sample"));
+      }
+      info.setPlayers(reader.treeToValue(players, Players.class));
+    }
+    JsonNode description = root.get("description");
+    if (description != null && description.isTextual()) {
+      Description text = new Description();
+      text.setText(description.asText());
+      info.setDescription(text);
+    } else if (description != null && description.isObject()) {
+      info.setDescription(reader.treeToValue(description, Description.class));
+    }
+    if (root.hasNonNull("favicon")) {
+      info.setFavicon(root.get("favicon").asText());
+    }
+    return info;
+  }
+
+  private void release() {
+    Runnable next = waiting.poll();
+    if (next != null) {
+      next.run();
+    } else {
+      permits.release();
+    }
+  }
+
+  private CompletableFuture<String> exchange(String host, int port,
+      CompletableFuture<ServerInfo> result) {
+    AsynchronousSocketChannel channel;
+    try {
+      channel = AsynchronousSocketChannel.open(group);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    // Alla scadenza del timeout la chiusura del canale interrompe le operazioni pendenti
+    result.whenComplete((info, error) -> closeQuietly(channel));
+
+    ByteBuffer request = ByteBuffer.wrap(statusRequest(host, port));
+    ByteBuffer response = ByteBuffer.allocate(8192);
+
+    return CompletableFuture
+        .supplyAsync(() -> new InetSocketAddress(host, port), resolver) //
+        .thenCompose(address -> connect(channel, address)) //
+        .thenCompose(v -> writeFully(channel, request)) //
+        .thenCompose(v -> readPacket(channel, response)) //
+        .thenApply(ServerListPingClient::decodeStatusResponse) //
+        .whenComplete((json, error) -> closeQuietly(channel));
+  }
+
+  private static byte[] statusRequest(String host, int port) {
+    ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+    writeVarInt(handshake, 0x00);
+    writeVarInt(handshake, PROTOCOL_VERSION);
+    writeString(handshake, host);
+    handshake.write((port >> 8) & 0xFF);
+    handshake.write(port & 0xFF);
+    writeVarInt(handshake, NEXT_STATE_STATUS);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarInt(out, handshake.size());
+    out.writeBytes(handshake.toByteArray());
+    // Status request: pacchetto vuoto con id 0x00
+    writeVarInt(out, 1);
+    writeVarInt(out, 0x00);
+    return out.toByteArray();
+  }
+
+  private static String decodeStatusResponse(ByteBuffer packet) {
+    int packetId = readVarInt(packet);
+    if (packetId != 0x00) {
+      throw new IllegalStateException("Unexpected packet id " + packetId);
+    }
+    int length = readVarInt(packet);
+    if (length < 0 || length > packet.remaining()) {
+      throw new IllegalStateException("Invalid status string length " + length);
+    }
+    byte[] json = new byte[length];
+    packet.get(json);
+    return new String(json, StandardCharsets.UTF_8);
+  }
+
+  private CompletableFuture<ByteBuffer> readPacket(AsynchronousSocketChannel channel,
+      ByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate().flip();
+    int length;
+    try {
+      length = tryReadVarInt(view);
+    } catch (IllegalStateException e) {
+      return CompletableFuture.failedFuture(new ProtocolException(e.getMessage()));
+    }
+    if (length > MAX_PACKET_SIZE) {
+      return CompletableFuture.failedFuture(new ProtocolException("Packet too large: " + length));
+    }
+    if (length >= 0 && view.remaining() >= length) {
+      return CompletableFuture.completedFuture(view.slice(view.position(), length));
+    }
+    if (length < 0 && !buffer.hasRemaining()) {
+      // Il buffer pieno contiene sempre almeno la lunghezza: un read() restituirebbe 0 all'infinito
+      return CompletableFuture.failedFuture(new ProtocolException("Invalid packet framing"));
+    }
+    if (length >= 0 && buffer.capacity() < view.position() + length) {
+      ByteBuffer larger = ByteBuffer.allocate(view.position() + length);
+      larger.put(buffer.flip());
+      buffer = larger;
+    }
+
+    ByteBuffer target = buffer;
+    return read(channel, target).thenCompose(read -> {
+      if (read < 0) {
+        return CompletableFuture.failedFuture(new EOFException("Connection closed by server"));
+      }
+      return readPacket(channel, target);
+    });
+  }
+
+  private static CompletableFuture<Void> connect(AsynchronousSocketChannel channel,
+      InetSocketAddress address) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    channel.connect(address, null, handler(future));
+    return future;
+  }
+
+  private static CompletableFuture<Integer> read(AsynchronousSocketChannel channel,
+      ByteBuffer buffer) {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    channel.read(buffer, null, handler(future));
+    return future;
+  }
+
+  private static CompletableFuture<Void> writeFully(AsynchronousSocketChannel channel,
+      ByteBuffer buffer) {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    channel.write(buffer, null, handler(future));
+    return future.thenCompose(
+        written -> buffer.hasRemaining() ? writeFully(channel, buffer)
+            : CompletableFuture.completedFuture(null));
+  }
+
+  private static <V> CompletionHandler<V, Void> handler(CompletableFuture<V> future) {
+    return new CompletionHandler<V, Void>() {
+      @Override
+      public void completed(V value, Void attachment) {
+        future.complete(value);
+      }
+
+      @Override
+      public void failed(Throwable exc, Void attachment) {
+        future.completeExceptionally(exc);
+      }
+    };
+  }
+
+  private static void closeQuietly(AsynchronousSocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // già chiuso
+    }
+  }
+
+  static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.writeBytes(bytes);
+  }
+
+  static int readVarInt(ByteBuffer buffer) {
+    int value = tryReadVarInt(buffer);
+    if (value < 0) {
+      throw new IllegalStateException("Truncated VarInt");
+    }
+    return value;
+  }
+
+  /**
+   * @return il valore letto o -1 se nel buffer non ci sono ancora abbastanza byte
+   */
+  private static int tryReadVarInt(ByteBuffer buffer) {
+    int value = 0;
+    for (int i = 0; i < 5; i++) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      byte b = buffer.get();
+      value |= (b & 0x7F) << (7 * i);
+      if ((b & 0x80) == 0) {
+        // Lunghezze e id non sono mai negativi; -1 indicherebbe byte mancanti
+        if (value < 0) {
+          throw new IllegalStateException("Negative VarInt " + value);
+        }
+        return value;
+      }
+    }
+    throw new IllegalStateException("VarInt too long");
+  }
+
+}
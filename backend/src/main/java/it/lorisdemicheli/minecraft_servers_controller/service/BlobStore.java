@@ -0,0 +1,238 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.PayloadTooLargeException;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Archivio su disco del controller indicizzato per sha256, condiviso da tutti i server: un jar
+ * caricato una volta può essere copiato in qualsiasi pod senza che il client lo rinvii. Quando
+ * supera {@code maxSize} vengono eliminati i contenuti usati meno di recente; l'ultimo accesso è
+ * salvato come mtime del file, così l'ordine sopravvive ai riavvii.
+ */
+@Service
+public class BlobStore {
+
+  private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+  private static final String TEMP_PREFIX = ".upload-";
+
+  private static final Counter REQUESTS = Counter.build() //
+      .name("minecraft_controller_blob_store_requests_total") //
+      .help("Blob lookups answered from the controller store (hit) or not (miss)") //
+      .labelNames("result") //
+      .register();
+
+  private static final Gauge BYTES = Gauge.build() //
+      .name("minecraft_controller_blob_store_bytes") //
+      .help("Total size of the blobs held by the controller store") //
+      .register();
+
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private Path root;
+  // sha256 -> dimensione in ordine di accesso, protetto da "this"
+  private final LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalSize = 0;
+
+  @PostConstruct
+  void start() throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    root = Path.of(serverOptions.getBlobStore().getDirectory());
+    Files.createDirectories(root);
+
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(root, 2)) {
+      files = walk.filter(Files::isRegularFile).toList();
+    }
+    files.stream() //
+        .sorted(Comparator.comparing(BlobStore::lastModified)) //
+        .forEach(file -> {
+          String name = file.getFileName().toString();
+          if (SHA256.matcher(name).matches()) {
+            long size = file.toFile().length();
+            blobs.put(name, size);
+            totalSize += size;
+          } else if (name.startsWith(TEMP_PREFIX)) {
+            // upload interrotto da un riavvio
+            file.toFile().delete();
+          }
+        });
+    synchronized (this) {
+      evict();
+    }
+  }
+
+  public boolean isEnabled() {
+    MinecraftServerOptions.BlobStore options = serverOptions.getBlobStore();
+    return options.isEnabled() && options.getDirectory() != null
+        && !options.getDirectory().isBlank();
+  }
+
+  /**
+   * Normalizza l'hash in minuscolo.
+   *
+   * @throws ConfigurationException se non è uno sha256 esadecimale
+   */
+  public static String checkHash(String sha256) {
+    String hash = sha256 == null ? "" : sha256.toLowerCase(Locale.ROOT);
+    if (!SHA256.matcher(hash).matches()) {
+      throw new ConfigurationException("Invalid sha256: " + sha256);
+    }
+    return hash;
+  }
+
+  /**
+   * @return la dimensione del contenuto, {@code null} se non è presente
+   */
+  public synchronized Long size(String sha256) {
+    Long size = isEnabled() ? blobs.get(checkHash(sha256)) : null;
+    REQUESTS.labels(size != null ? "hit" : "miss").inc();
+    return size;
+  }
+
+  /**
+   * Salva il contenuto verificandone lo sha256; se era già presente viene solo sostituito.
+   *
+   * @param size dimensione attesa, se nota
+   */
+  public long put(String sha256, InputStream content, Long size) throws IOException {
+    String hash = checkHash(sha256);
+    long maxSize = Math.min(serverOptions.getBlobStore().getMaxSize().toBytes(),
+        serverOptions.getUpload().getMaxSize().toBytes());
+    if (!isEnabled()) {
+      throw new ConfigurationException("Blob store disabled");
+    }
+    if (size != null && size > maxSize) {
+      throw new PayloadTooLargeException("Blob larger than the store");
+    }
+
+    Path temp = root.resolve(TEMP_PREFIX + UUID.randomUUID());
+    try {
+      MessageDigest digest = sha256Digest();
+      long written;
+      try (InputStream in = new DigestInputStream(content, digest);
+          OutputStream out = Files.newOutputStream(temp)) {
+        written = copy(in, out, maxSize);
+      }
+      if (size != null && written != size) {
+        throw new ConfigurationException("Expected " + size + " bytes, received " + written);
+      }
+      String actual = HexFormat.of().formatHex(digest.digest());
+      if (!actual.equals(hash)) {
+        throw new ConfigurationException("Checksum mismatch, content is " + actual);
+      }
+
+      Path target = path(hash);
+      Files.createDirectories(target.getParent());
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      synchronized (this) {
+        Long previous = blobs.put(hash, written);
+        totalSize += written - (previous != null ? previous : 0);
+        evict();
+      }
+      return written;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  // Senza Content-Length ci si ferma appena superato il limite, prima di riempire il disco
+  private static long copy(InputStream in, OutputStream out, long maxSize) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    long written = 0;
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      written += read;
+      if (written > maxSize) {
+        throw new PayloadTooLargeException("Blob larger than " + maxSize + " bytes");
+      }
+      out.write(buffer, 0, read);
+    }
+    return written;
+  }
+
+  /**
+   * Apre il contenuto e lo segna come usato.
+   *
+   * @return {@code null} se non è presente
+   */
+  public InputStream open(String sha256) throws IOException {
+    String hash = checkHash(sha256);
+    synchronized (this) {
+      if (!isEnabled() || blobs.get(hash) == null) {
+        return null;
+      }
+    }
+    Path file = path(hash);
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return Files.newInputStream(file);
+    } catch (NoSuchFileException e) {
+      // eliminato nel frattempo per fare spazio
+      return null;
+    }
+  }
+
+  private void evict() {
+    long maxSize = serverOptions.getBlobStore().getMaxSize().toBytes();
+    Iterator<Map.Entry<String, Long>> eldest = blobs.entrySet().iterator();
+    while (totalSize > maxSize && eldest.hasNext()) {
+      Map.Entry<String, Long> blob = eldest.next();
+      // Su Linux chi sta già leggendo il file può finire di farlo
+      path(blob.getKey()).toFile().delete();
+      totalSize -= blob.getValue();
+      eldest.remove();
+    }
+    BYTES.set(totalSize);
+  }
+
+  // Due livelli come git, per non avere decine di migliaia di file in una cartella
+  private Path path(String hash) {
+    return root.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private static MessageDigest sha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
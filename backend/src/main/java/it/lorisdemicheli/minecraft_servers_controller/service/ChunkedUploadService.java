@@ -0,0 +1,262 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.openapi.ApiException;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadRequest;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadSession;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.PayloadTooLargeException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceNotFoundException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Upload riprendibili: il file viene assemblato direttamente nel pod, in un file nascosto accanto
+ * alla destinazione, scrivendo ogni chunk al suo offset. I chunk possono arrivare in qualsiasi
+ * ordine e in parallelo; il file viene spostato nella destinazione solo quando sono presenti tutti
+ * e l'hash complessivo corrisponde. Le sessioni sono tenute in memoria dal controller.
+ */
+@Service
+public class ChunkedUploadService {
+
+  private static final long MAX_CHUNKS = 100_000;
+
+  @Autowired
+  private KubernetesFileSystemService fileSystem;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService cleanup = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("chunked-uploads").daemon().factory());
+
+  @PostConstruct
+  void start() {
+    cleanup.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  void stop() {
+    cleanup.shutdownNow();
+  }
+
+  public UploadSession create(String ns, String pod, String container, String serverName,
+      UploadRequest request) throws IOException, InterruptedException, ApiException {
+    MinecraftServerOptions.Upload options = serverOptions.getUpload();
+    if (request.path() == null || request.path().isBlank() || request.path().endsWith("/")) {
+      throw new ConfigurationException("A file path is required");
+    }
+    if (request.size() < 0) {
+      throw new ConfigurationException("size must not be negative");
+    }
+    if (request.size() > options.getMaxSize().toBytes()) {
+      throw new PayloadTooLargeException("Upload larger than " + options.getMaxSize());
+    }
+    long chunkSize = request.chunkSize() != null ? request.chunkSize()
+        : options.getDefaultChunkSize().toBytes();
+    if (chunkSize < 1 || chunkSize > options.getMaxChunkSize().toBytes()) {
+      throw new ConfigurationException("chunkSize must be between 1 and "
+          + options.getMaxChunkSize().toBytes());
+    }
+    if ((request.size() + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+      throw new ConfigurationException("chunkSize too small, at most " + MAX_CHUNKS + " chunks");
+    }
+
+    String id = UUID.randomUUID().toString();
+    int slash = request.path().lastIndexOf('/');
+    String partial = request.path().substring(0, slash + 1) + "."
+        + request.path().substring(slash + 1) + ".upload-" + id;
+    fileSystem.createFile(ns, pod, container, partial);
+
+    Upload upload = new Upload(id, serverName, ns, pod, container, request.path(), partial,
+        request.size(), chunkSize, request.sha256());
+    uploads.put(id, upload);
+    return upload.toSession();
+  }
+
+  public UploadSession get(String serverName, String id) {
+    return find(serverName, id).toSession();
+  }
+
+  /**
+   * Scrive il chunk al suo offset. Il chunk viene segnato come ricevuto solo se la lunghezza e, se
+   * indicato, lo sha256 corrispondono; in caso contrario il client può semplicemente reinviarlo.
+   */
+  public UploadSession writeChunk(String serverName, String id, int index, InputStream content,
+      Long length, String sha256) throws IOException, InterruptedException, ApiException {
+    Upload upload = find(serverName, id);
+    if (index < 0 || index >= upload.chunkCount()) {
+      throw new ConfigurationException("Chunk index out of range: " + index);
+    }
+    long expected = upload.chunkLength(index);
+    if (length != null && length != expected) {
+      throw new ConfigurationException("Chunk " + index + " must be " + expected + " bytes");
+    }
+
+    MessageDigest digest = sha256Digest();
+    upload.touch();
+    fileSystem.writeBlock(upload.ns, upload.pod, upload.container, upload.partial,
+        upload.chunkSize, index, new DigestInputStream(content, digest), expected);
+    if (sha256 != null && !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256)) {
+      throw new ConfigurationException("Checksum mismatch for chunk " + index);
+    }
+
+    upload.received(index);
+    return upload.toSession();
+  }
+
+  /**
+   * Verifica che ci siano tutti i chunk e l'hash dell'intero file, poi sposta il file nella
+   * destinazione. L'upload viene tolto dalla mappa prima della verifica, così due richieste
+   * concorrenti non la eseguono entrambe; se qualcosa fallisce torna disponibile per riprovare.
+   *
+   * @param sha256 hash atteso, se {@code null} quello indicato alla creazione
+   */
+  public void complete(String serverName, String id, String sha256)
+      throws IOException, InterruptedException, ApiException {
+    Upload upload = find(serverName, id);
+    if (!upload.isComplete()) {
+      throw new ConfigurationException("Upload incomplete, missing chunks");
+    }
+    if (!uploads.remove(id, upload)) {
+      throw new ResourceNotFoundException();
+    }
+
+    boolean completed = false;
+    try {
+      String expected = sha256 != null ? sha256 : upload.sha256;
+      if (expected != null) {
+        String actual = fileSystem.sha256(upload.ns, upload.pod, upload.container,
+            upload.partial, serverOptions.getUpload().getFinalizeTimeout());
+        if (!actual.equalsIgnoreCase(expected)) {
+          throw new ConfigurationException("Checksum mismatch, expected " + expected
+              + " but the assembled file is " + actual);
+        }
+      }
+
+      fileSystem.moveFile(upload.ns, upload.pod, upload.container, upload.partial, upload.path);
+      completed = true;
+    } finally {
+      if (!completed) {
+        upload.touch();
+        uploads.put(id, upload);
+      }
+    }
+  }
+
+  public void abort(String serverName, String id)
+      throws IOException, InterruptedException, ApiException {
+    Upload upload = find(serverName, id);
+    uploads.remove(id);
+    fileSystem.deletePath(upload.ns, upload.pod, upload.container, upload.partial);
+  }
+
+  private Upload find(String serverName, String id) {
+    Upload upload = uploads.get(id);
+    if (upload == null || !upload.serverName.equals(serverName)) {
+      throw new ResourceNotFoundException();
+    }
+    return upload;
+  }
+
+  private void expire() {
+    Instant now = Instant.now();
+    uploads.values().removeIf(upload -> {
+      if (upload.expiresAt().isAfter(now)) {
+        return false;
+      }
+      try {
+        fileSystem.deletePath(upload.ns, upload.pod, upload.container, upload.partial);
+      } catch (IOException | ApiException e) {
+        // pod non raggiungibile: il file parziale resta nascosto
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    });
+  }
+
+  private static MessageDigest sha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private class Upload {
+    private final String id;
+    private final String serverName;
+    private final String ns;
+    private final String pod;
+    private final String container;
+    private final String path;
+    private final String partial;
+    private final long size;
+    private final long chunkSize;
+    private final String sha256;
+    // Protetto da "this"
+    private final BitSet received = new BitSet();
+    private volatile Instant lastActivity = Instant.now();
+
+    Upload(String id, String serverName, String ns, String pod, String container, String path,
+        String partial, long size, long chunkSize, String sha256) {
+      this.id = id;
+      this.serverName = serverName;
+      this.ns = ns;
+      this.pod = pod;
+      this.container = container;
+      this.path = path;
+      this.partial = partial;
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.sha256 = sha256;
+    }
+
+    int chunkCount() {
+      return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    long chunkLength(int index) {
+      return Math.min(chunkSize, size - index * chunkSize);
+    }
+
+    void touch() {
+      lastActivity = Instant.now();
+    }
+
+    Instant expiresAt() {
+      return lastActivity.plus(serverOptions.getUpload().getSessionTimeout());
+    }
+
+    synchronized void received(int index) {
+      received.set(index);
+      touch();
+    }
+
+    synchronized boolean isComplete() {
+      return received.cardinality() == chunkCount();
+    }
+
+    synchronized UploadSession toSession() {
+      return new UploadSession(id, path, size, chunkSize, chunkCount(),
+          received.stream().boxed().toList(), expiresAt());
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BlockSignature;
+
+/**
+ * Differenza in stile rsync tra un contenuto nuovo e le firme dei blocchi del file nel pod. Il
+ * contenuto viene letto in streaming facendo scorrere una finestra di {@code blockSize} byte: dove
+ * il checksum debole e poi l'md5 coincidono con un blocco del vecchio file si emette una copia,
+ * altrimenti i byte diventano dati letterali. La memoria usata è limitata a
+ * {@link #LITERAL_CHUNK} più due blocchi.
+ * <p>
+ * Il manifest è testuale, una riga per operazione, con i dati letterali subito dopo la loro riga:
+ * <ul>
+ * <li>{@code C primo-blocco numero-blocchi}: copia blocchi consecutivi dal vecchio file</li>
+ * <li>{@code D lunghezza}: seguono {@code lunghezza} byte da scrivere</li>
+ * <li>{@code E dimensione sha256}: fine, con dimensione e hash del file risultante</li>
+ * </ul>
+ */
+public class DeltaEncoder {
+
+  static final int LITERAL_CHUNK = 1024 * 1024;
+
+  private final int blockSize;
+  private final List<BlockSignature> signatures;
+  private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+
+  public DeltaEncoder(int blockSize, List<BlockSignature> signatures) {
+    this.blockSize = blockSize;
+    this.signatures = signatures;
+    // La finestra scorrevole confronta i blocchi interi, l'ultimo blocco corto solo la coda
+    for (int i = 0; i < signatures.size(); i++) {
+      if (signatures.get(i).length() == blockSize) {
+        blocksByWeak.computeIfAbsent(signatures.get(i).weak(), k -> new ArrayList<>()).add(i);
+      }
+    }
+  }
+
+  /**
+   * Checksum debole di rsync: {@code a} è la somma dei byte, {@code b} la somma pesata dalla fine
+   * del blocco, entrambe modulo 2^16.
+   */
+  public static int weakChecksum(byte[] data, int offset, int length) {
+    int a = 0;
+    int b = 0;
+    for (int i = 0; i < length; i++) {
+      int x = data[offset + i] & 0xff;
+      a += x;
+      b += (length - i) * x;
+    }
+    return (b & 0xffff) << 16 | (a & 0xffff);
+  }
+
+  /**
+   * Scrive su {@code out} il manifest che trasforma il vecchio file in {@code content}.
+   */
+  public Result encode(InputStream content, OutputStream out) throws IOException {
+    MessageDigest sha256 = digest("SHA-256");
+    MessageDigest md5 = digest("MD5");
+    Manifest manifest = new Manifest(out);
+
+    byte[] buf = new byte[LITERAL_CHUNK + 2 * blockSize];
+    // [literal, start) dati letterali non ancora scritti, [start, start + blockSize) la finestra
+    int literal = 0;
+    int start = 0;
+    int end = 0;
+    long size = 0;
+    boolean eof = false;
+    boolean rolling = false;
+    int a = 0;
+    int b = 0;
+
+    while (true) {
+      // Serve la finestra intera più il byte successivo per farla scorrere
+      if (end - start <= blockSize && !eof) {
+        System.arraycopy(buf, literal, buf, 0, end - literal);
+        start -= literal;
+        end -= literal;
+        literal = 0;
+        while (end < buf.length) {
+          int read = content.read(buf, end, buf.length - end);
+          if (read < 0) {
+            eof = true;
+            break;
+          }
+          sha256.update(buf, end, read);
+          size += read;
+          end += read;
+        }
+      }
+      if (end - start < blockSize) {
+        // La coda può ancora coincidere con l'ultimo blocco corto del vecchio file
+        if (end > start && lastBlockMatches(buf, start, end - start, md5)) {
+          manifest.literal(buf, literal, start - literal);
+          manifest.copy(signatures.size() - 1);
+          literal = end;
+        }
+        break;
+      }
+
+      if (!rolling) {
+        int weak = weakChecksum(buf, start, blockSize);
+        a = weak & 0xffff;
+        b = weak >>> 16;
+        rolling = true;
+      }
+      int match = blocksByWeak.isEmpty() ? -1 : findBlock(b << 16 | a, buf, start, md5);
+      if (match >= 0) {
+        manifest.literal(buf, literal, start - literal);
+        manifest.copy(match);
+        start += blockSize;
+        literal = start;
+        rolling = false;
+        continue;
+      }
+      if (end - start == blockSize) {
+        // Fine del contenuto: la finestra non può più scorrere
+        break;
+      }
+
+      int removed = buf[start] & 0xff;
+      int added = buf[start + blockSize] & 0xff;
+      a = (a - removed + added) & 0xffff;
+      b = (b - blockSize * removed + a) & 0xffff;
+      start++;
+      if (start - literal >= LITERAL_CHUNK) {
+        manifest.literal(buf, literal, start - literal);
+        literal = start;
+      }
+    }
+
+    manifest.literal(buf, literal, end - literal);
+    String hash = HexFormat.of().formatHex(sha256.digest());
+    manifest.end(size, hash);
+    return new Result(size, hash, manifest.reusedBlocks, manifest.literalBytes,
+        manifest.operations);
+  }
+
+  private int findBlock(int weak, byte[] buf, int start, MessageDigest md5) {
+    List<Integer> candidates = blocksByWeak.get(weak);
+    if (candidates == null) {
+      return -1;
+    }
+    md5.update(buf, start, blockSize);
+    String strong = HexFormat.of().formatHex(md5.digest());
+    for (int index : candidates) {
+      if (signatures.get(index).strong().equalsIgnoreCase(strong)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private boolean lastBlockMatches(byte[] buf, int start, int length, MessageDigest md5) {
+    if (signatures.isEmpty() || signatures.getLast().length() != length) {
+      return false;
+    }
+    md5.update(buf, start, length);
+    return signatures.getLast().strong().equalsIgnoreCase(HexFormat.of().formatHex(md5.digest()));
+  }
+
+  private static MessageDigest digest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public record Result(long size, String sha256, long reusedBlocks, long literalBytes,
+      long operations) {
+  }
+
+  private static class Manifest {
+    private final OutputStream out;
+    private long copyStart = -1;
+    private long copyCount = 0;
+    private long reusedBlocks = 0;
+    private long literalBytes = 0;
+    private long operations = 0;
+
+    Manifest(OutputStream out) {
+      this.out = out;
+    }
+
+    // I blocchi consecutivi diventano una sola copia
+    void copy(int index) throws IOException {
+      if (copyCount > 0 && index == copyStart + copyCount) {
+        copyCount++;
+      } else {
+        flushCopy();
+        copyStart = index;
+        copyCount = 1;
+      }
+      reusedBlocks++;
+    }
+
+    void literal(byte[] data, int offset, int length) throws IOException {
+      if (length == 0) {
+        return;
+      }
+      flushCopy();
+      write("D " + length + "\n");
+      out.write(data, offset, length);
+      literalBytes += length;
+    }
+
+    void end(long size, String sha256) throws IOException {
+      flushCopy();
+      write("E " + size + " " + sha256 + "\n");
+      out.flush();
+    }
+
+    private void flushCopy() throws IOException {
+      if (copyCount > 0) {
+        write("C " + copyStart + " " + copyCount + "\n");
+        copyCount = 0;
+      }
+    }
+
+    private void write(String line) throws IOException {
+      out.write(line.getBytes(StandardCharsets.US_ASCII));
+      operations++;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.openapi.ApiException;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BlockSignature;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SyncReport;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+
+/**
+ * Sincronizzazione a delta di un file: il pod calcola le firme dei blocchi del file esistente, il
+ * controller confronta il contenuto ricevuto e invia al pod solo i blocchi cambiati, insieme al
+ * manifest per ricostruire il file. Utile per jar e regioni che cambiano poco tra un caricamento
+ * e l'altro.
+ */
+@Service
+public class DeltaSyncService {
+
+  private static final int MIN_BLOCK_SIZE = 512;
+
+  @Autowired
+  private KubernetesFileSystemService fileSystem;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  /**
+   * @param blockSize dimensione dei blocchi, {@code null} per quella configurata
+   * @param dryRun calcola soltanto cosa verrebbe inviato, senza modificare il file
+   */
+  public SyncReport sync(String ns, String pod, String container, String path, InputStream content,
+      Integer blockSize, boolean dryRun) throws IOException, InterruptedException, ApiException {
+    MinecraftServerOptions.Sync options = serverOptions.getSync();
+    int size = blockSize != null ? blockSize : (int) options.getBlockSize().toBytes();
+    if (size < MIN_BLOCK_SIZE || size > options.getMaxBlockSize().toBytes()) {
+      throw new ConfigurationException("blockSize must be between " + MIN_BLOCK_SIZE + " and "
+          + options.getMaxBlockSize().toBytes());
+    }
+
+    List<BlockSignature> signatures =
+        fileSystem.blockSignatures(ns, pod, container, path, size, options.getTimeout());
+    DeltaEncoder encoder = new DeltaEncoder(size, signatures);
+
+    DeltaEncoder.Result result;
+    if (dryRun) {
+      result = encoder.encode(content, OutputStream.nullOutputStream());
+    } else {
+      DeltaEncoder.Result[] applied = new DeltaEncoder.Result[1];
+      fileSystem.applyDelta(ns, pod, container, path, size,
+          out -> applied[0] = encoder.encode(content, out), options.getTimeout());
+      result = applied[0];
+    }
+
+    return new SyncReport(path, result.size(), size, signatures.size(), result.reusedBlocks(),
+        result.literalBytes(), result.operations(), dryRun);
+  }
+}
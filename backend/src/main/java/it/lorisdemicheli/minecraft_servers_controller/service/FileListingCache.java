@@ -0,0 +1,217 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.openapi.models.V1ContainerStatus;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Cache LRU con scadenza dei listati di cartella, per pod. Le scritture fatte dal controller
+ * invalidano solo le cartelle toccate; un pod ricreato o con un container riavviato svuota tutte
+ * quelle del server. Le modifiche fatte dal server stesso restano visibili al più dopo {@code ttl}.
+ */
+@Service
+public class FileListingCache {
+
+  private static final Counter REQUESTS = Counter.build() //
+      .name("minecraft_controller_file_listing_cache_requests_total") //
+      .help("Directory listings served from the controller cache (hit) or from the pod (miss)") //
+      .labelNames("result") //
+      .register();
+
+  private static final Gauge DIRECTORIES = Gauge.build() //
+      .name("minecraft_controller_file_listing_cache_directories") //
+      .help("Number of directory listings currently held by the controller cache") //
+      .register();
+
+  @Autowired
+  private KubernetesResourceCache resourceCache;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private final Map<String, PodListings> pods = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  void start() {
+    resourceCache.addPodHandler(new ResourceEventHandler<V1Pod>() {
+      @Override
+      public void onAdd(V1Pod pod) {
+        invalidateAll(pod);
+      }
+
+      @Override
+      public void onUpdate(V1Pod oldPod, V1Pod newPod) {
+        if (!Objects.equals(oldPod.getMetadata().getUid(), newPod.getMetadata().getUid())
+            || restarts(oldPod) != restarts(newPod)) {
+          invalidateAll(newPod);
+        }
+      }
+
+      @Override
+      public void onDelete(V1Pod pod, boolean deletedFinalStateUnknown) {
+        invalidateAll(pod);
+      }
+    });
+  }
+
+  public boolean isEnabled() {
+    return serverOptions.getListingCache().isEnabled();
+  }
+
+  public int getMaxEntries() {
+    return serverOptions.getListingCache().getMaxEntriesPerDirectory();
+  }
+
+  /**
+   * @return il listato completo della cartella o {@code null} se non è in cache o è scaduto
+   */
+  public List<FileEntry> get(String ns, String pod, String path) {
+    List<FileEntry> entries = listings(ns, pod).get(normalize(path));
+    REQUESTS.labels(entries != null ? "hit" : "miss").inc();
+    return entries;
+  }
+
+  /**
+   * Versione delle cartelle del pod, da leggere prima di avviare il listato: se nel frattempo c'è
+   * stata un'invalidazione {@link #put} scarta il risultato, che potrebbe essere già vecchio.
+   */
+  public long version(String ns, String pod) {
+    return listings(ns, pod).version();
+  }
+
+  public void put(String ns, String pod, String path, List<FileEntry> entries, long version) {
+    listings(ns, pod).put(normalize(path), List.copyOf(entries), version);
+    updateSize();
+  }
+
+  /**
+   * Invalida la cartella che contiene {@code path}, {@code path} stesso e il suo contenuto.
+   *
+   * @param ancestors invalida anche tutte le cartelle superiori, per le operazioni come
+   *        {@code mkdir -p} che possono crearne più livelli
+   */
+  public void invalidate(String ns, String pod, String path, boolean ancestors) {
+    PodListings listings = pods.get(key(ns, pod));
+    if (listings != null) {
+      listings.invalidate(normalize(path), ancestors);
+      updateSize();
+    }
+  }
+
+  private void invalidateAll(V1Pod pod) {
+    PodListings listings =
+        pods.get(key(pod.getMetadata().getNamespace(), pod.getMetadata().getName()));
+    if (listings != null) {
+      listings.clear();
+      updateSize();
+    }
+  }
+
+  private PodListings listings(String ns, String pod) {
+    return pods.computeIfAbsent(key(ns, pod), k -> new PodListings());
+  }
+
+  private void updateSize() {
+    DIRECTORIES.set(pods.values().stream().mapToInt(PodListings::size).sum());
+  }
+
+  private static String key(String ns, String pod) {
+    return ns + "/" + pod;
+  }
+
+  // "./world/", "/world" e "world" sono la stessa cartella; la radice è ""
+  private static String normalize(String path) {
+    String normalized = Strings.CS.removeStart(path, ".");
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    while (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+
+  private static String parent(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash < 0 ? "" : path.substring(0, slash);
+  }
+
+  private static int restarts(V1Pod pod) {
+    if (pod.getStatus() == null || pod.getStatus().getContainerStatuses() == null) {
+      return 0;
+    }
+    return pod.getStatus().getContainerStatuses().stream() //
+        .mapToInt(V1ContainerStatus::getRestartCount) //
+        .sum();
+  }
+
+  private record Listing(List<FileEntry> entries, long expiresAt) {
+  }
+
+  private class PodListings {
+    private final LinkedHashMap<String, Listing> directories =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > serverOptions.getListingCache().getMaxDirectoriesPerServer();
+          }
+        };
+    private long version = 0;
+
+    synchronized List<FileEntry> get(String path) {
+      Listing listing = directories.get(path);
+      if (listing == null) {
+        return null;
+      }
+      if (System.nanoTime() - listing.expiresAt() > 0) {
+        directories.remove(path);
+        return null;
+      }
+      return listing.entries();
+    }
+
+    synchronized long version() {
+      return version;
+    }
+
+    synchronized void put(String path, List<FileEntry> entries, long version) {
+      if (this.version == version) {
+        long ttl = serverOptions.getListingCache().getTtl().toNanos();
+        directories.put(path, new Listing(entries, System.nanoTime() + ttl));
+      }
+    }
+
+    synchronized void invalidate(String path, boolean ancestors) {
+      version++;
+      String parent = parent(path);
+      directories.keySet().removeIf(dir -> dir.equals(path) //
+          || dir.equals(parent) //
+          || path.isEmpty() //
+          || dir.startsWith(path + "/") //
+          || (ancestors && (dir.isEmpty() || path.startsWith(dir + "/"))));
+    }
+
+    synchronized void clear() {
+      version++;
+      directories.clear();
+    }
+
+    synchronized int size() {
+      return directories.size();
+    }
+  }
+}
@@ -1,87 +1,778 @@
 package it.lorisdemicheli.minecraft_servers_controller.service;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.lang3.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import io.kubernetes.client.Copy;
 import io.kubernetes.client.Exec;
 import io.kubernetes.client.openapi.ApiException;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ArchiveFormat;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BlockSignature;
 import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry.FileType;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperation;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperationResult;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FilePage;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileStat;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SearchMatch;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileSort;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 public class KubernetesFileSystemService {
 
+  private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+  // Il pod annuncia la codifica sulla prima riga; se il file non è leggibile non scrive nulla
+  private static final String COMPRESSED_DOWNLOAD =
+      "[ -r \"$1\" ] || { echo \"No such file: $1\" >&2; exit 1; }; " //
+          + "if command -v gzip >/dev/null 2>&1; then echo gzip; exec gzip -c -\"$2\" <\"$1\"; fi; " //
+          + "echo identity; exec cat <\"$1\"";
+  // Il decompressore non termina senza EOF sullo stdin, che l'exec non sempre inoltra: l'esito
+  // arriva su una riga "@@ codice" appena tar ha letto la fine dell'archivio
+  private static final String COMPRESSED_UPLOAD =
+      "if command -v gzip >/dev/null 2>&1; then echo gzip; d='gzip -dc'; " //
+          + "else echo identity; d=cat; fi; " //
+          + "$d | { tar -xmf - -C \"$1\" && mv -f \"$1/$2\" \"$1/$3\"; echo \"@@ $?\"; } 2>&1";
+  // Checksum deboli con od e awk, poi gli md5 dei blocchi; split --filter manca in busybox
+  private static final String BLOCK_SIGNATURES = "[ -f \"$1\" ] || exit 0; " //
+      + "od -An -v -tu1 -w\"$2\" \"$1\" | awk '{ a = 0; b = 0; "
+      + "for (i = 1; i <= NF; i++) { a += $i; b += (NF - i + 1) * $i } print NF, a % 65536, b % 65536 }'; " //
+      + "echo --; " //
+      + "split -b \"$2\" --filter=md5sum \"$1\" 2>/dev/null || { " //
+      + "n=$(( ($(wc -c <\"$1\") + $2 - 1) / $2 )); i=0; " //
+      + "while [ $i -lt $n ]; do dd if=\"$1\" bs=\"$2\" skip=$i count=1 2>/dev/null | md5sum; i=$((i + 1)); done; }";
+  // Applica il manifest di DeltaEncoder in un file temporaneo; termina da solo alla riga "E".
+  // I dati letterali vanno letti dallo stdin condiviso senza consumare un byte in più: head -c
+  // può leggere oltre, dd con count_bytes (GNU) o bs=1 (busybox) si ferma esattamente
+  private static final String APPLY_DELTA = "trap 'rm -f \"$2\"' EXIT; trap 'exit 1' TERM; " //
+      + ": >\"$2\" || exit 1; " //
+      + "if dd --version 2>/dev/null | grep -q coreutils; then " //
+      + "take() { dd iflag=count_bytes,fullblock bs=65536 count=\"$1\" 2>/dev/null; }; " //
+      + "else take() { dd bs=1 count=\"$1\" 2>/dev/null; }; fi; " //
+      + "while read -r op x y; do case $op in " //
+      + "C) dd if=\"$1\" bs=\"$3\" skip=\"$x\" count=\"$y\" 2>/dev/null ;; " //
+      + "D) take \"$x\" ;; " //
+      + "E) break ;; " //
+      + "*) exit 2 ;; esac; done >>\"$2\"; " //
+      + "[ \"$op\" = E ] && [ $(($(wc -c <\"$2\"))) -eq \"$x\" ] " //
+      + "&& [ \"$(sha256sum <\"$2\" | cut -d ' ' -f 1)\" = \"$y\" ] " //
+      + "|| { echo \"Delta result does not match, the file changed during the sync?\" >&2; exit 3; }; " //
+      + "{ chown \"$(stat -c %u:%g \"$1\")\" \"$2\"; " //
+      + "chmod \"$(stat -c %a \"$1\")\" \"$2\"; } 2>/dev/null; " //
+      + "mv -f \"$2\" \"$1\"";
+
+  private static final Histogram EXEC_DURATION = Histogram.build() //
+      .name("minecraft_controller_pod_exec_duration_seconds") //
+      .help("Duration of short commands run in the server pods") //
+      .labelNames("command", "mode") //
+      .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 15) //
+      .register();
+
+  private static final Counter EXEC_FAILURES = Counter.build() //
+      .name("minecraft_controller_pod_exec_failures_total") //
+      .help("Short commands run in the server pods that failed") //
+      .labelNames("command", "mode") //
+      .register();
+
   @Autowired
   private Exec exec;
   @Autowired
   private Copy copy;
+  @Autowired
+  private PodShellSessionManager shellSessions;
+  @Autowired
+  private FileListingCache listingCache;
+  @Autowired
+  private TransferCompression compression;
 
   // LISTA FILE CON METADATI
-  public List<FileEntry> listFiles(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException  {
-    String cmd = String.format("stat -c '%%n|%%F|%%s|%%Y' %s/*", path);
-    String output = executeCommand(ns, pod, container, new String[] {"sh", "-c", cmd});
+  /**
+   * Pagina della cartella secondo l'ordinamento richiesto, tenendo solo le migliori {@code limit}
+   * voci dopo il cursore. L'output di {@code find} viene letto in streaming da un exec dedicato,
+   * non dalle sessioni shell che lo raccoglierebbero per intero, quindi la memoria dipende dalla
+   * dimensione della pagina e non da quella della cartella. Le cartelle non troppo grandi vengono
+   * anche messe in {@link FileListingCache}.
+   *
+   * @param types tipi da includere, tutti se vuoto o {@code null}
+   * @param limit dimensione della pagina, {@code null} per restituire tutte le voci
+   * @param after ultima voce della pagina precedente
+   */
+  public FilePage listFiles(String ns, String pod, String container, String path, FileSort sort,
+      boolean descending, Set<FileType> types, Integer limit, FileEntry after)
+      throws IOException, InterruptedException, ApiException {
+    PageCollector page = new PageCollector(sort, descending, types, limit, after);
 
-    if (output.isBlank()) {
-      return List.of();
+    if (listingCache.isEnabled()) {
+      List<FileEntry> cached = listingCache.get(ns, pod, path);
+      if (cached != null) {
+        cached.forEach(page::accept);
+        return page.toPage();
+      }
+    }
+    long version = listingCache.version(ns, pod);
+
+    String[] command = {"sh", "-c", findCommand(path, 1, List.of(), true)};
+    List<FileEntry> listing;
+    Process proc = exec.exec(ns, pod, command, container, false, false);
+    ErrorDrain errors = new ErrorDrain(proc);
+    try (FindReader reader = new FindReader(proc.getInputStream(), path, proc)) {
+      listing = collectListing(reader, page);
+      if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+        throw new IOException("K8s Command Timeout");
+      }
+      commandOutput(proc.exitValue(), new byte[0],
+          errors.await().getBytes(StandardCharsets.UTF_8));
+    }
+
+    if (listing != null) {
+      listingCache.put(ns, pod, path, listing, version);
     }
+    return page.toPage();
+  }
 
-    List<FileEntry> entries = new ArrayList<>();
-    for (String line : output.split("\n")) {
-      String[] p = line.split("\\|");
-      if (partsValid(p)) {
-        entries.add(FileEntry.fromStat(p[0], p[1], Long.parseLong(p[2]), Long.parseLong(p[3])));
+  // @return le voci da mettere in cache, {@code null} se la cartella è troppo grande
+  private List<FileEntry> collectListing(FindReader reader, PageCollector page)
+      throws IOException {
+    List<FileEntry> listing = listingCache.isEnabled() ? new ArrayList<>() : null;
+    FileEntry entry;
+    while ((entry = reader.next()) != null) {
+      page.accept(entry);
+      if (listing != null) {
+        listing.add(entry);
+        if (listing.size() > listingCache.getMaxEntries()) {
+          listing = null;
+        }
       }
     }
-    return entries;
+    return listing;
+  }
+
+  // ALBERO FILE IN STREAMING
+  /**
+   * Visita ricorsiva con un solo {@code find}; le voci vengono lette dall'exec man mano che il
+   * subscriber le richiede.
+   *
+   * @param maxDepth profondità massima, {@code null} per nessun limite
+   * @param globs pattern sul nome dei file da restituire, tutti se vuoto
+   * @param includeHidden se {@code false} i file e le cartelle che iniziano con "." vengono saltati
+   */
+  public Flux<FileEntry> walkFiles(String ns, String pod, String container, String path,
+      Integer maxDepth, List<String> globs, boolean includeHidden) {
+    String cmd = findCommand(path, maxDepth, globs, includeHidden);
+    return Flux.<FileEntry, FindReader>generate(() -> {
+      Process proc = exec.exec(ns, pod, new String[] {"sh", "-c", cmd}, container, false, false);
+      return new FindReader(proc.getInputStream(), path, proc, new ErrorDrain(proc));
+    }, (reader, sink) -> {
+      try {
+        FileEntry entry = reader.next();
+        if (entry == null) {
+          reader.checkExit();
+          sink.complete();
+        } else {
+          sink.next(entry);
+        }
+      } catch (IOException | InterruptedException e) {
+        sink.error(e);
+      }
+      return reader;
+    }, FindReader::close) //
+        .subscribeOn(Schedulers.boundedElastic());
   }
 
+  // RICERCA NEL CONTENUTO
+  /**
+   * Cerca {@code regex} (ERE di grep) nei file di testo sotto {@code path}, in streaming. Nel pod la
+   * ricerca gira con priorità bassa ed è interrotta da {@code timeout}, nel qual caso lo stream
+   * termina con un errore dopo i risultati già trovati; i file binari e quelli più grandi di
+   * {@code maxFileSize} vengono saltati.
+   *
+   * @param globs pattern sul nome dei file in cui cercare, tutti se vuoto
+   * @param context righe di contesto da includere prima e dopo ogni risultato
+   */
+  public Flux<SearchMatch> searchFiles(String ns, String pod, String container, String path,
+      String regex, List<String> globs, boolean ignoreCase, int maxMatches, long maxFileSize,
+      int context, Duration timeout) {
+    StringBuilder script = new StringBuilder("cd \"$1\" || exit 1; ") //
+        .append("exec timeout \"$2\" nice -n 19 find . -type f");
+    if (globs != null && !globs.isEmpty()) {
+      script.append(" \\( ").append(nameTests(globs)).append(" \\)");
+    }
+    script.append(" -size -\"$3\"c -exec grep -I -H -n -Z -E -m \"$4\" -C \"$5\"") //
+        .append(ignoreCase ? " -i" : "") //
+        .append(" -e \"$6\" -- {} +");
+    String[] command = {"sh", "-c", script.toString(), "sh", path,
+        Long.toString(Math.max(1, timeout.toSeconds())), Long.toString(maxFileSize + 1),
+        Integer.toString(maxMatches), Integer.toString(context), regex};
+
+    return Flux.<SearchMatch, GrepReader>generate(() -> {
+      Process proc = exec.exec(ns, pod, command, container, false, false);
+      return new GrepReader(proc.getInputStream(), path, context, proc);
+    }, (reader, sink) -> {
+      try {
+        SearchMatch match = reader.next();
+        if (match == null) {
+          reader.checkExit();
+          sink.complete();
+        } else {
+          sink.next(match);
+        }
+      } catch (IOException | InterruptedException e) {
+        sink.error(e);
+      }
+      return reader;
+    }, GrepReader::close) //
+        .take(maxMatches) //
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /**
+   * Carica il file scrivendo un archivio tar direttamente sullo stdin dell'exec, senza passare da
+   * file temporanei sul controller: ogni scrittura aspetta che il websocket abbia smaltito i dati,
+   * quindi il client viene letto solo alla velocità con cui il pod riceve. Il file viene estratto
+   * con un nome temporaneo e rinominato solo a trasferimento completato. Se
+   * {@link TransferCompression} lo ritiene utile l'archivio viaggia compresso.
+   *
+   * @param size dimensione esatta del contenuto, richiesta dall'intestazione tar
+   */
   public void uploadFile(String ns, String pod, String container, String remotePath,
-      InputStream inputStream) throws IOException, ApiException  {
-    Path tempFile = Files.createTempFile("k8s-up-", ".tmp");
+      InputStream inputStream, long size) throws IOException, InterruptedException, ApiException  {
+    // Come Copy: i percorsi assoluti sono relativi alla radice del container
+    String root = remotePath.startsWith("/") ? "/" : ".";
+    String target = Strings.CS.removeStart(Strings.CS.removeStart(remotePath, "./"), "/");
+    int slash = target.lastIndexOf('/');
+    String partial = target.substring(0, slash + 1) + "." + target.substring(slash + 1) + ".upload-"
+        + Long.toHexString(System.nanoTime());
+
+    boolean compressed = compression.shouldCompress(remotePath, size);
+    String script = compressed ? COMPRESSED_UPLOAD : "tar -xmf - -C \"$1\" && mv -f \"$1/$2\" \"$1/$3\"";
+    String[] command = {"sh", "-c", script, "sh", root, partial, target};
+    Process proc = exec.exec(ns, pod, command, container, true, false);
+    boolean completed = false;
+    try (inputStream) {
+      String encoding = compressed ? TransferCompression.readLine(proc.getInputStream())
+          : TransferCompression.IDENTITY;
+      if (encoding == null) {
+        throw new IOException("K8s Error: upload command did not start");
+      }
+
+      try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new BufferedOutputStream(
+          compression.encode(proc.getOutputStream(), encoding), UPLOAD_BUFFER_SIZE))) {
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        TarArchiveEntry entry = new TarArchiveEntry(partial);
+        entry.setSize(size);
+        tar.putArchiveEntry(entry);
+        inputStream.transferTo(tar);
+        // Se il client si è fermato prima di "size" byte l'archivio è incompleto e fallisce qui
+        tar.closeArchiveEntry();
+        tar.finish();
+      }
+
+      if (compressed) {
+        StringBuilder errors = new StringBuilder();
+        String line;
+        while ((line = TransferCompression.readLine(proc.getInputStream())) != null
+            && !line.startsWith("@@ ")) {
+          errors.append(line).append('\n');
+        }
+        if (line == null || !line.equals("@@ 0")) {
+          throw new IOException("K8s Error (" + (line == null ? "no exit code" : "Code "
+              + line.substring(3)) + "): " + errors);
+        }
+      } else {
+        byte[] errBytes = proc.getErrorStream().readAllBytes();
+        if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+          throw new IOException("K8s Command Timeout");
+        }
+        if (proc.exitValue() != 0) {
+          throw new IOException("K8s Error (Code " + proc.exitValue() + "): "
+              + new String(errBytes, StandardCharsets.UTF_8));
+        }
+      }
+      completed = true;
+    } finally {
+      proc.destroy();
+      if (!completed) {
+        try {
+          executeCommand(ns, pod, container, new String[] {"rm", "-f", root + "/" + partial});
+        } catch (IOException | ApiException e) {
+          // resta il file parziale nascosto, l'errore da riportare è quello del trasferimento
+        }
+      }
+      listingCache.invalidate(ns, pod, remotePath, true);
+    }
+  }
+
+  // UPLOAD A CHUNK
+  /**
+   * Crea il file vuoto che verrà riempito da {@link #writeBlock}, con le cartelle mancanti.
+   */
+  public void createFile(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException {
+    executeCommand(ns, pod, container,
+        new String[] {"sh", "-c", "mkdir -p \"$(dirname \"$1\")\" && : > \"$1\"", "sh", path});
+  }
+
+  /**
+   * Scrive {@code length} byte nel file a partire dal blocco {@code blockIndex}, lasciando intatto
+   * il resto. {@code head -c} termina da solo dopo i byte attesi, senza dipendere dalla chiusura
+   * dello stdin, e il {@code seek} in blocchi funziona anche con il dd di busybox.
+   */
+  public void writeBlock(String ns, String pod, String container, String path, long blockSize,
+      long blockIndex, InputStream inputStream, long length) throws IOException, InterruptedException, ApiException {
+    String[] command = {"sh", "-c",
+        "head -c \"$1\" | dd of=\"$2\" bs=\"$3\" seek=\"$4\" conv=notrunc 2>/dev/null", "sh",
+        Long.toString(length), path, Long.toString(blockSize), Long.toString(blockIndex)};
+    Process proc = exec.exec(ns, pod, command, container, true, false);
+    ErrorDrain errors = new ErrorDrain(proc);
     try {
-      try (inputStream) {
-        Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+      try (OutputStream out = new BufferedOutputStream(
+          compression.encode(proc.getOutputStream(), TransferCompression.IDENTITY),
+          UPLOAD_BUFFER_SIZE)) {
+        byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+          int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read < 0) {
+            throw new EOFException("Chunk truncated, " + remaining + " bytes missing");
+          }
+          out.write(buffer, 0, read);
+          remaining -= read;
+        }
       }
-      copy.copyFileToPod(ns, pod, container, tempFile, Path.of(remotePath));
+
+      // Lo stderr si legge mentre si scrive, così l'attesa dell'esito ha davvero un limite
+      if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+        throw new IOException("K8s Command Timeout");
+      }
+      if (proc.exitValue() != 0) {
+        throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + errors.await());
+      }
+    } finally {
+      proc.destroy();
+    }
+  }
+
+  public String sha256(String ns, String pod, String container, String path, Duration timeout) throws IOException, InterruptedException, ApiException {
+    // Su file di qualche GB l'hash supera il timeout delle sessioni: exec dedicato
+    byte[] output = executeBounded(ns, pod, container, new String[] {"sha256sum", path}, timeout);
+    return Strings.CS.substringBefore(new String(output, StandardCharsets.UTF_8), " ");
+  }
+
+  public void moveFile(String ns, String pod, String container, String source, String target) throws IOException, InterruptedException, ApiException {
+    try {
+      executeCommand(ns, pod, container, new String[] {"mv", "-f", source, target});
     } finally {
-      Files.deleteIfExists(tempFile);
+      listingCache.invalidate(ns, pod, target, true);
     }
   }
 
-  public InputStream downloadFile(String ns, String pod, String container, String remotePath) throws ApiException, IOException {
-    return copy.copyFileFromPod(ns, pod, container, remotePath);
+  // SINCRONIZZAZIONE A DELTA
+  /**
+   * Firme dei blocchi del file per {@link DeltaEncoder}, vuote se il file non esiste. Il calcolo
+   * legge tutto il file, quindi usa un exec dedicato come {@link #sha256}.
+   */
+  public List<BlockSignature> blockSignatures(String ns, String pod, String container, String path,
+      int blockSize, Duration timeout) throws IOException, InterruptedException, ApiException {
+    String[] command = {"sh", "-c", BLOCK_SIGNATURES, "sh", path, Integer.toString(blockSize)};
+    byte[] output = executeBounded(ns, pod, container, command, timeout);
+
+    List<String> lines = new String(output, StandardCharsets.UTF_8).lines().toList();
+    int separator = lines.indexOf("--");
+    if (separator < 0) {
+      return List.of();
+    }
+    if (lines.size() - separator - 1 != separator) {
+      throw new IOException("Block signatures mismatch: " + separator + " checksums, "
+          + (lines.size() - separator - 1) + " hashes");
+    }
+    List<BlockSignature> signatures = new ArrayList<>(separator);
+    for (int i = 0; i < separator; i++) {
+      String[] weak = lines.get(i).trim().split("\\s+");
+      String strong = lines.get(separator + 1 + i).trim().split("\\s+")[0];
+      signatures.add(new BlockSignature(Integer.parseInt(weak[0]),
+          Integer.parseInt(weak[2]) << 16 | Integer.parseInt(weak[1]), strong));
+    }
+    return signatures;
+  }
+
+  /**
+   * Ricostruisce il file nel pod dal manifest scritto da {@code manifest}, in un file temporaneo
+   * che sostituisce quello vecchio solo se dimensione e sha256 finali corrispondono. Lo script è
+   * interrotto nel pod allo scadere di {@code timeout}, anche se resta in attesa sullo stdin.
+   */
+  public void applyDelta(String ns, String pod, String container, String path, int blockSize,
+      ContentWriter manifest, Duration timeout) throws IOException, InterruptedException, ApiException {
+    int slash = path.lastIndexOf('/');
+    String partial = path.substring(0, slash + 1) + "." + path.substring(slash + 1) + ".sync-"
+        + Long.toHexString(System.nanoTime());
+    String[] command = {"timeout", Long.toString(Math.max(1, timeout.toSeconds())), "sh", "-c",
+        APPLY_DELTA, "sh", path, partial, Integer.toString(blockSize)};
+    Process proc = exec.exec(ns, pod, command, container, true, false);
+    ErrorDrain errors = new ErrorDrain(proc);
+    try {
+      try (OutputStream out = new BufferedOutputStream(proc.getOutputStream(), UPLOAD_BUFFER_SIZE)) {
+        manifest.writeTo(out);
+      }
+
+      if (!proc.waitFor(timeout.toMillis() + 15_000, TimeUnit.MILLISECONDS)
+          || proc.exitValue() == 124) {
+        throw new IOException("K8s Command Timeout");
+      }
+      if (proc.exitValue() != 0) {
+        throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + errors.await());
+      }
+    } finally {
+      proc.destroy();
+      listingCache.invalidate(ns, pod, path, false);
+    }
+  }
+
+  @FunctionalInterface
+  public interface ContentWriter {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * @param size dimensione del file, per decidere se conviene comprimerlo nel pod
+   */
+  public InputStream downloadFile(String ns, String pod, String container, String remotePath,
+      long size) throws ApiException, IOException {
+    if (!compression.shouldCompress(remotePath, size)) {
+      return compression.decode(copy.copyFileFromPod(ns, pod, container, remotePath),
+          TransferCompression.IDENTITY);
+    }
+
+    String[] command = {"sh", "-c", COMPRESSED_DOWNLOAD, "sh", remotePath,
+        Integer.toString(compression.getLevel())};
+    Process proc = exec.exec(ns, pod, command, container, false, false);
+    try {
+      String encoding = TransferCompression.readLine(proc.getInputStream());
+      if (encoding == null) {
+        byte[] errBytes = proc.getErrorStream().readAllBytes();
+        throw new IOException("K8s Error: " + new String(errBytes, StandardCharsets.UTF_8));
+      }
+      return new FilterInputStream(compression.decode(proc.getInputStream(), encoding)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            proc.destroy();
+          }
+        }
+      };
+    } catch (IOException | RuntimeException e) {
+      proc.destroy();
+      throw e;
+    }
+  }
+
+  /**
+   * Legge solo i byte richiesti: {@code tail -c +N} su un file regolare salta direttamente
+   * all'offset invece di leggere quelli precedenti.
+   */
+  public InputStream downloadRange(String ns, String pod, String container, String remotePath,
+      long offset, long length) throws ApiException, IOException {
+    String[] command = {"sh", "-c", "tail -c +\"$1\" \"$2\" | head -c \"$3\"", "sh",
+        Long.toString(offset + 1), remotePath, Long.toString(length)};
+    Process proc = exec.exec(ns, pod, command, container, false, false);
+    return new FilterInputStream(
+        compression.decode(proc.getInputStream(), TransferCompression.IDENTITY)) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          proc.destroy();
+        }
+      }
+    };
+  }
+
+  // ARCHIVIO DI UNA CARTELLA
+  /**
+   * Scrive la cartella come archivio su {@code out} man mano che il pod lo produce. Tar e
+   * compressione avvengono nel pod; per lo zip il pod invia il tar non compresso e le voci vengono
+   * ricompresse qui una alla volta, senza buffer intermedi.
+   *
+   * @param includes pattern sul nome dei file da includere, tutti se vuoto
+   * @param excludes pattern sul nome di file e cartelle da saltare, es. {@code session.lock}
+   */
+  public void writeArchive(String ns, String pod, String container, String path,
+      ArchiveFormat format, int level, List<String> includes, List<String> excludes,
+      OutputStream out) throws IOException, InterruptedException, ApiException {
+    // Ogni passaggio della pipe segnala il suo errore su stderr con "@@": sh riporta solo l'esito
+    // dell'ultimo comando, e un archivio troncato a metà non deve sembrare completo
+    StringBuilder script = new StringBuilder("cd \"$1\" || exit 1; { find . -mindepth 1");
+    if (excludes != null && !excludes.isEmpty()) {
+      script.append(" \\( ").append(nameTests(excludes)).append(" \\) -prune -o");
+    }
+    if (includes != null && !includes.isEmpty()) {
+      script.append(" \\( ").append(nameTests(includes)).append(" \\)");
+    }
+    script.append(" -printf '%P\\0' || echo \"@@ find $?\" >&2; }");
+    // tar esce con 1 se un file cambia mentre lo legge, normale con il server acceso
+    script.append(" | { tar --null --no-recursion -T - -cf -; s=$?; ")
+        .append("[ $s -le 1 ] || echo \"@@ tar $s\" >&2; }");
+    switch (format) {
+      case TAR_GZ -> script.append(" | gzip -").append(level);
+      case TAR_ZST -> script.insert(0, "command -v zstd >/dev/null || exit 127; ")
+          .append(" | zstd -q -").append(level);
+      case ZIP -> {
+      }
+    }
+
+    Process proc = exec.exec(ns, pod, new String[] {"sh", "-c", script.toString(), "sh", path},
+        container, false, false);
+    ErrorDrain errors = new ErrorDrain(proc);
+    try {
+      try (InputStream in = compression.decode(proc.getInputStream(),
+          TransferCompression.IDENTITY)) {
+        if (format == ArchiveFormat.ZIP) {
+          tarToZip(in, out, level);
+          // Blocchi finali del tar, altrimenti il pod può restare bloccato a scriverli
+          in.transferTo(OutputStream.nullOutputStream());
+        } else {
+          in.transferTo(out);
+        }
+      }
+      if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+        throw new IOException("K8s Command Timeout");
+      }
+      // L'eccezione interrompe la risposta, così il client non riceve un archivio troncato
+      String stderr = errors.await();
+      if (proc.exitValue() != 0 || stderr.contains("@@ ")) {
+        throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + stderr);
+      }
+    } finally {
+      proc.destroy();
+    }
+  }
+
+  /**
+   * @return se il comando è disponibile nel container, es. {@code zstd} per gli archivi
+   */
+  public boolean hasCommand(String ns, String pod, String container, String command) throws IOException, InterruptedException, ApiException {
+    return executeCommand(ns, pod, container,
+        new String[] {"sh", "-c", "command -v \"$1\" >/dev/null && echo yes", "sh", command})
+        .equals("yes");
+  }
+
+  private static String nameTests(List<String> globs) {
+    return globs.stream() //
+        .map(glob -> "-name " + Shell.quote(glob)) //
+        .collect(Collectors.joining(" -o "));
+  }
+
+  private static void tarToZip(InputStream tarStream, OutputStream out, int level)
+      throws IOException {
+    TarArchiveInputStream tar = new TarArchiveInputStream(tarStream);
+    // Non si chiude lo zip per non chiudere lo stream della risposta
+    ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+    zip.setLevel(level);
+
+    TarArchiveEntry entry;
+    while ((entry = tar.getNextEntry()) != null) {
+      if (!entry.isFile() && !entry.isDirectory()) {
+        continue;
+      }
+      String name = entry.isDirectory() ? Strings.CS.appendIfMissing(entry.getName(), "/")
+          : entry.getName();
+      ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+      zipEntry.setLastModifiedTime(FileTime.from(entry.getModTime().toInstant()));
+      if (entry.isFile()) {
+        zipEntry.setSize(entry.getSize());
+      }
+      zip.putArchiveEntry(zipEntry);
+      if (entry.isFile()) {
+        tar.transferTo(zip);
+      }
+      zip.closeArchiveEntry();
+    }
+    zip.finish();
+    zip.flush();
+  }
+
+  /**
+   * @return dimensione e data di modifica, {@code null} se il file non esiste
+   */
+  public FileStat statFile(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException {
+    String output = executeCommand(ns, pod, container, new String[] {"stat", "-c", "%s %Y %F", path});
+    if (output.isBlank()) {
+      return null;
+    }
+    String[] p = output.split(" ", 3);
+    return new FileStat(Long.parseLong(p[0]), Long.parseLong(p[1]), p[2].equals("directory"));
   }
 
   public void createDirectory(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException {
-    executeCommand(ns, pod, container, new String[] {"mkdir", "-p", path});
+    try {
+      executeCommand(ns, pod, container, new String[] {"mkdir", "-p", path});
+    } finally {
+      listingCache.invalidate(ns, pod, path, true);
+    }
   }
 
   public void deletePath(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException  {
-    executeCommand(ns, pod, container, new String[] {"rm", "-rf", path});
+    try {
+      executeCommand(ns, pod, container, new String[] {"rm", "-rf", path});
+    } finally {
+      listingCache.invalidate(ns, pod, path, false);
+    }
   }
 
   public void touchFile(String ns, String pod, String container, String path) throws IOException, InterruptedException, ApiException {
-    executeCommand(ns, pod, container, new String[] {"touch", path});
+    try {
+      executeCommand(ns, pod, container, new String[] {"touch", path});
+    } finally {
+      listingCache.invalidate(ns, pod, path, false);
+    }
+  }
+
+  // OPERAZIONI IN BLOCCO
+  /**
+   * Esegue tutte le operazioni in un solo script, con un exec dedicato come {@link #sha256}: una
+   * copia o una cancellazione ricorsiva può durare più del timeout delle sessioni. Per ogni
+   * operazione eseguita lo script stampa una riga {@code indice exit-code errore}; quelle senza
+   * riga non sono state eseguite. Allo scadere di {@code timeout} l'operazione in corso viene
+   * terminata nel pod e risulta fallita, le successive saltate, e le righe già lette restano valide.
+   *
+   * @param stopOnFailure interrompe lo script alla prima operazione fallita
+   */
+  public List<FileOperationResult> executeOperations(String ns, String pod, String container,
+      List<FileOperation> operations, boolean stopOnFailure, Duration timeout)
+      throws IOException, InterruptedException, ApiException {
+    StringBuilder script = new StringBuilder("d=$(($(date +%s) + $1))\n");
+    for (int i = 0; i < operations.size(); i++) {
+      FileOperation op = operations.get(i);
+      String path = Shell.quote(op.path());
+      String command = switch (op.type()) {
+        case MKDIR -> "mkdir -p -- " + path;
+        case DELETE -> "rm -rf -- " + path;
+        case TOUCH -> "touch -- " + path;
+        case MOVE -> "mv -f -- " + path + " " + Shell.quote(op.target());
+        case COPY -> "cp -R -- " + path + " " + Shell.quote(op.target());
+      };
+      // Il tempo rimasto va letto una sola volta: "timeout 0" non avrebbe limite
+      script.append("t=$((d - $(date +%s))); [ $t -gt 0 ] || exit 0; ") //
+          .append("e=$(timeout $t ").append(command).append(" 2>&1); r=$?; ") //
+          .append("[ $r -eq 124 ] && e='Timed out'; ") //
+          .append("printf '%d %d %s\\n' ").append(i).append(" $r \"$(printf '%s' \"$e\" | tr '\\n' ' ')\"");
+      if (stopOnFailure) {
+        script.append("; [ $r -eq 0 ] || exit 0");
+      }
+      script.append('\n');
+    }
+
+    String[] command = {"sh", "-c", script.toString(), "sh",
+        Long.toString(Math.max(1, timeout.toSeconds()))};
+    FileOperationResult[] results = new FileOperationResult[operations.size()];
+    Process proc = exec.exec(ns, pod, command, container, false, false);
+    ErrorDrain errors = new ErrorDrain(proc);
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(proc.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] p = line.split(" ", 3);
+        if (p.length < 2) {
+          continue;
+        }
+        int index = Integer.parseInt(p[0]);
+        boolean success = p[1].equals("0");
+        results[index] = new FileOperationResult(operations.get(index),
+            success ? FileOperationResult.Status.OK : FileOperationResult.Status.FAILED,
+            success || p.length < 3 ? null : p[2].trim());
+      }
+      if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+        throw new IOException("K8s Command Timeout");
+      }
+      commandOutput(proc.exitValue(), new byte[0],
+          errors.await().getBytes(StandardCharsets.UTF_8));
+    } finally {
+      proc.destroy();
+      for (FileOperation op : operations) {
+        listingCache.invalidate(ns, pod, op.path(), op.type() == FileOperation.Type.MKDIR);
+        if (op.target() != null) {
+          listingCache.invalidate(ns, pod, op.target(), false);
+        }
+      }
+    }
+
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null) {
+        results[i] = new FileOperationResult(operations.get(i), FileOperationResult.Status.SKIPPED, null);
+      }
+    }
+    return List.of(results);
   }
 
   // ESECUZIONE COMANDI CON GESTIONE ROBUSTA DEGLI STREAM
   private String executeCommand(String ns, String pod, String container, String[] command) throws IOException, InterruptedException, ApiException {
+    return new String(executeRaw(ns, pod, container, command), StandardCharsets.UTF_8).trim();
+  }
+
+  private byte[] executeRaw(String ns, String pod, String container, String[] command) throws IOException, InterruptedException, ApiException {
+    // Solo il nome del comando come etichetta: gli argomenti contengono percorsi e script
+    boolean session = shellSessions.isEnabled();
+    String mode = session ? "session" : "exec";
+    long start = System.nanoTime();
+    boolean completed = false;
+    try {
+      byte[] output = session ? executeInSession(ns, pod, container, command)
+          : executeInExec(ns, pod, container, command);
+      completed = true;
+      return output;
+    } finally {
+      EXEC_DURATION.labels(command[0], mode).observe((System.nanoTime() - start) / 1e9);
+      if (!completed) {
+        EXEC_FAILURES.labels(command[0], mode).inc();
+      }
+    }
+  }
+
+  private byte[] executeInSession(String ns, String pod, String container, String[] command) throws IOException, InterruptedException, ApiException {
+    PodShellSessionManager.Result result = shellSessions.execute(ns, pod, container, command);
+    return commandOutput(result.exitCode(), result.stdout(), result.stderr());
+  }
+
+  private byte[] executeInExec(String ns, String pod, String container, String[] command) throws IOException, InterruptedException, ApiException {
     Process proc = exec.exec(ns, pod, command, container, false, false);
+    ErrorDrain errors = new ErrorDrain(proc);
 
     byte[] outBytes;
-    byte[] errBytes;
-
-    try (var out = proc.getInputStream(); var err = proc.getErrorStream()) {
+    try (var out = proc.getInputStream()) {
       outBytes = out.readAllBytes();
-      errBytes = err.readAllBytes();
     }
 
     if (!proc.waitFor(15, TimeUnit.SECONDS)) {
@@ -89,17 +780,383 @@ public class KubernetesFileSystemService {
       throw new IOException("K8s Command Timeout");
     }
 
-    if (proc.exitValue() != 0) {
+    return commandOutput(proc.exitValue(), outBytes,
+        errors.await().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Esegue un comando lungo in un exec dedicato, interrotto nel pod da {@code timeout}: lo stdout
+   * si chiude entro il limite anche se il comando resta bloccato.
+   */
+  private byte[] executeBounded(String ns, String pod, String container, String[] command,
+      Duration timeout) throws IOException, InterruptedException, ApiException {
+    String[] bounded = new String[command.length + 2];
+    bounded[0] = "timeout";
+    bounded[1] = Long.toString(Math.max(1, timeout.toSeconds()));
+    System.arraycopy(command, 0, bounded, 2, command.length);
+    Process proc = exec.exec(ns, pod, bounded, container, false, false);
+    ErrorDrain errors = new ErrorDrain(proc);
+    try {
+      byte[] output;
+      try (InputStream out = proc.getInputStream()) {
+        output = out.readAllBytes();
+      }
+      if (!proc.waitFor(15, TimeUnit.SECONDS) || proc.exitValue() == 124) {
+        throw new IOException("K8s Command Timeout");
+      }
+      if (proc.exitValue() != 0) {
+        throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + errors.await());
+      }
+      return output;
+    } finally {
+      proc.destroy();
+    }
+  }
+
+  private byte[] commandOutput(int exitCode, byte[] outBytes, byte[] errBytes) throws IOException {
+    if (exitCode != 0) {
       String errorMsg = new String(errBytes, StandardCharsets.UTF_8);
       if (errorMsg.contains("No such file"))
-        return "";
-      throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + errorMsg);
+        return new byte[0];
+      throw new IOException("K8s Error (Code " + exitCode + "): " + errorMsg);
+    }
+
+    return outBytes;
+  }
+
+  /**
+   * Un record per voce: percorso relativo, tipo, dimensione e mtime separati da NUL, l'unico
+   * carattere che non può comparire in un nome di file.
+   */
+  private static String findCommand(String path, Integer maxDepth, List<String> globs,
+      boolean includeHidden) {
+    StringBuilder cmd = new StringBuilder("find ").append(Shell.quote(path)).append(" -mindepth 1");
+    if (maxDepth != null) {
+      cmd.append(" -maxdepth ").append(maxDepth);
+    }
+    if (!includeHidden) {
+      cmd.append(" -name '.*' -prune -o");
+    }
+    if (globs != null && !globs.isEmpty()) {
+      cmd.append(" \\( ").append(nameTests(globs)).append(" \\)");
+    }
+    return cmd.append(" -printf '%P\\0%y\\0%s\\0%T@\\0'").toString();
+  }
+
+  /**
+   * Seleziona le migliori {@code limit} voci dopo il cursore senza tenere in memoria le altre.
+   */
+  private static class PageCollector {
+    private final FileSort sort;
+    private final boolean descending;
+    private final Comparator<FileEntry> order;
+    private final Set<FileType> types;
+    private final Integer limit;
+    private final FileEntry after;
+    // Max-heap: in testa c'è la voce da scartare quando la pagina è piena
+    private final PriorityQueue<FileEntry> page;
+    private boolean more = false;
+
+    PageCollector(FileSort sort, boolean descending, Set<FileType> types, Integer limit,
+        FileEntry after) {
+      this.sort = sort;
+      this.descending = descending;
+      this.order = sort.comparator(descending);
+      this.types = types;
+      this.limit = limit;
+      this.after = after;
+      this.page = new PriorityQueue<>(order.reversed());
+    }
+
+    void accept(FileEntry entry) {
+      if (types != null && !types.isEmpty() && !types.contains(entry.type())) {
+        return;
+      }
+      if (after != null && order.compare(entry, after) <= 0) {
+        return;
+      }
+      page.add(entry);
+      if (limit != null && page.size() > limit) {
+        page.poll();
+        more = true;
+      }
+    }
+
+    FilePage toPage() {
+      List<FileEntry> entries = new ArrayList<>(page);
+      entries.sort(order);
+      String nextCursor = more ? FilePage.encodeCursor(entries.getLast(), sort, descending) : null;
+      return new FilePage(entries, nextCursor);
+    }
+  }
+
+  /**
+   * Legge lo stderr in un thread virtuale mentre si consuma lo stdout: un comando che scrive molti
+   * errori riempirebbe il buffer dello stderr e bloccherebbe l'exec. Tiene solo i primi byte.
+   */
+  private static class ErrorDrain {
+    private static final int MAX_KEPT = 8 * 1024;
+
+    private final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+    private final Thread thread;
+
+    ErrorDrain(Process proc) {
+      thread = Thread.ofVirtual().name("exec-stderr").start(() -> {
+        try (InputStream err = proc.getErrorStream()) {
+          byte[] buffer = new byte[4096];
+          int read;
+          while ((read = err.read(buffer)) >= 0) {
+            synchronized (kept) {
+              kept.write(buffer, 0, Math.min(read, Math.max(0, MAX_KEPT - kept.size())));
+            }
+          }
+        } catch (IOException e) {
+          // exec chiuso
+        }
+      });
+    }
+
+    /**
+     * @return lo stderr del comando, da chiamare quando il comando è terminato
+     */
+    String await() throws InterruptedException {
+      thread.join(Duration.ofSeconds(5));
+      synchronized (kept) {
+        return kept.toString(StandardCharsets.UTF_8).trim();
+      }
+    }
+  }
+
+  /**
+   * Controlla l'esito di un comando letto in streaming, dopo la fine del suo output. Il timeout
+   * nel pod ({@code timeout}, esito 124) rende il risultato parziale; gli altri esiti non zero sono
+   * errori solo se il comando ha scritto su stderr.
+   */
+  private static void checkStreamExit(Process proc, ErrorDrain errors, String operation)
+      throws IOException, InterruptedException {
+    if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+      throw new IOException("K8s Command Timeout");
+    }
+    String stderr = errors.await();
+    if (proc.exitValue() == 124) {
+      throw new IOException(operation + " timed out, results are partial");
+    }
+    if (proc.exitValue() != 0 && !stderr.isEmpty()) {
+      throw new IOException("K8s Error (Code " + proc.exitValue() + "): " + stderr);
+    }
+  }
+
+  private static class FindReader implements Closeable {
+    private final InputStream in;
+    private final String root;
+    private final Process proc;
+    private final ErrorDrain errors;
+
+    FindReader(InputStream in, String path, Process proc) {
+      this(in, path, proc, null);
+    }
+
+    /**
+     * @param errors stderr di {@code proc}, per {@link #checkExit()}
+     */
+    FindReader(InputStream in, String path, Process proc, ErrorDrain errors) {
+      this.in = new BufferedInputStream(in);
+      // "./world/" -> "/world", "." -> ""
+      this.root = Strings.CS.removeEnd(Strings.CS.removeStart(path, "."), "/");
+      this.proc = proc;
+      this.errors = errors;
+    }
+
+    /**
+     * Da chiamare a fine output: permessi negati o percorso inesistente non devono sembrare
+     * una cartella con meno file.
+     */
+    void checkExit() throws IOException, InterruptedException {
+      checkStreamExit(proc, errors, "Listing");
+    }
+
+    FileEntry next() throws IOException {
+      String relative = readField();
+      if (relative == null) {
+        return null;
+      }
+      String type = readField();
+      String size = readField();
+      String mtime = readField();
+      if (mtime == null) {
+        throw new EOFException("Truncated find output");
+      }
+      return FileEntry.fromFind(root + "/" + relative, type.charAt(0), Long.parseLong(size),
+          Long.parseLong(Strings.CS.substringBefore(mtime, ".")));
+    }
+
+    private String readField() throws IOException {
+      ByteArrayOutputStream field = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != 0) {
+        if (b < 0) {
+          return null;
+        }
+        field.write(b);
+      }
+      return field.toString(StandardCharsets.UTF_8);
     }
 
-    return new String(outBytes, StandardCharsets.UTF_8).trim();
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // già chiuso
+      }
+      if (proc != null) {
+        proc.destroy();
+      }
+    }
+  }
+
+  /**
+   * Legge l'output di {@code grep -n -Z -C}: righe {@code file\0numero:testo} per i risultati,
+   * {@code file\0numero-testo} per il contesto e {@code --} tra gruppi non contigui. Le righe di
+   * contesto vengono attaccate al risultato precedente e a quello successivo.
+   */
+  private static class GrepReader implements Closeable {
+    // Un file minificato può avere righe di megabyte
+    private static final int MAX_LINE_BYTES = 1024;
+
+    private final InputStream in;
+    private final String root;
+    private final int context;
+    private final Process proc;
+    private final ErrorDrain errors;
+    private final Deque<SearchMatch> ready = new ArrayDeque<>();
+    private final Deque<GrepLine> recent = new ArrayDeque<>();
+    private String file;
+    private GrepLine pending;
+    private List<String> pendingBefore;
+    private List<String> pendingAfter;
+
+    GrepReader(InputStream in, String path, int context, Process proc) {
+      this.in = new BufferedInputStream(in);
+      this.root = Strings.CS.removeEnd(Strings.CS.removeStart(path, "."), "/");
+      this.context = context;
+      this.proc = proc;
+      this.errors = new ErrorDrain(proc);
+    }
+
+    /**
+     * Da chiamare a fine output: un timeout o un errore di find e grep non devono sembrare una
+     * ricerca completa. grep esce con 1 anche se un gruppo di file non ha risultati, quindi conta
+     * solo se ha scritto qualcosa su stderr.
+     */
+    void checkExit() throws IOException, InterruptedException {
+      checkStreamExit(proc, errors, "Search");
+    }
+
+    SearchMatch next() throws IOException {
+      while (ready.isEmpty()) {
+        GrepLine line = readLine();
+        if (line == null) {
+          flush();
+          break;
+        }
+        accept(line);
+      }
+      return ready.poll();
+    }
+
+    private void accept(GrepLine line) {
+      if (line.file() == null || !line.file().equals(file)) {
+        flush();
+        recent.clear();
+        file = line.file();
+        if (line.file() == null) {
+          return;
+        }
+      }
+
+      if (line.match()) {
+        flush();
+        pending = line;
+        pendingBefore = recent.stream() //
+            .filter(l -> l.number() >= line.number() - context) //
+            .map(GrepLine::text) //
+            .toList();
+        pendingAfter = new ArrayList<>();
+        recent.clear();
+        if (context == 0) {
+          flush();
+        }
+        return;
+      }
+
+      if (pending != null && pendingAfter.size() < context) {
+        pendingAfter.add(line.text());
+        if (pendingAfter.size() == context) {
+          flush();
+        }
+      }
+      recent.addLast(line);
+      if (recent.size() > context) {
+        recent.removeFirst();
+      }
+    }
+
+    private void flush() {
+      if (pending != null) {
+        String relative = Strings.CS.removeStart(pending.file(), "./");
+        ready.add(new SearchMatch(root + "/" + relative, pending.number(), pending.text(),
+            pendingBefore, List.copyOf(pendingAfter)));
+        pending = null;
+      }
+    }
+
+    // null a fine stream; file null per il separatore "--"
+    private GrepLine readLine() throws IOException {
+      ByteArrayOutputStream name = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != 0) {
+        if (b < 0) {
+          return null;
+        }
+        if (b == '\n') {
+          return new GrepLine(null, 0, false, null);
+        }
+        name.write(b);
+      }
+
+      long number = 0;
+      while ((b = in.read()) >= '0' && b <= '9') {
+        number = number * 10 + (b - '0');
+      }
+      if (b != ':' && b != '-') {
+        throw new IOException("Unexpected grep output");
+      }
+      boolean match = b == ':';
+
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      while ((b = in.read()) != '\n' && b >= 0) {
+        if (text.size() < MAX_LINE_BYTES) {
+          text.write(b);
+        }
+      }
+      return new GrepLine(name.toString(StandardCharsets.UTF_8), number, match,
+          text.toString(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // già chiuso
+      }
+      if (proc != null) {
+        proc.destroy();
+      }
+    }
   }
 
-  private boolean partsValid(String[] p) {
-    return p.length == 4;
+  private record GrepLine(String file, long number, boolean match, String text) {
   }
 }
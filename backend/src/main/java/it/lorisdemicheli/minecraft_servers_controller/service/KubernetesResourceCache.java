@@ -0,0 +1,193 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.util.List;
+import java.util.Objects;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.informer.cache.Lister;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1StatefulSet;
+import io.kubernetes.client.openapi.models.V1StatefulSetList;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Cache locale, alimentata da informer, degli StatefulSet e dei Pod gestiti dal controller. Finché
+ * gli informer non hanno completato la prima LIST il chiamante deve ripiegare sulle letture dirette.
+ */
+@Service
+public class KubernetesResourceCache {
+
+  static final String RESOURCE_STATEFULSET = "statefulset";
+  static final String RESOURCE_POD = "pod";
+
+  private static final Gauge CACHE_SYNCED = Gauge.build() //
+      .name("minecraft_controller_cache_synced") //
+      .help("Whether the informer cache completed its initial list (1) or not (0)") //
+      .labelNames("resource") //
+      .register();
+
+  private static final Gauge CACHE_LAST_EVENT = Gauge.build() //
+      .name("minecraft_controller_cache_last_event_timestamp_seconds") //
+      .help("Unix time of the last watch event applied to the informer cache") //
+      .labelNames("resource") //
+      .register();
+
+  private static final Gauge CACHE_SIZE = Gauge.build() //
+      .name("minecraft_controller_cache_objects") //
+      .help("Number of objects currently held by the informer cache") //
+      .labelNames("resource") //
+      .register();
+
+  private static final Counter CACHE_READS = Counter.build() //
+      .name("minecraft_controller_cache_reads_total") //
+      .help("Reads served by the informer cache or by a live API call") //
+      .labelNames("resource", "source") //
+      .register();
+
+  @Autowired
+  private SharedInformerFactory informerFactory;
+  @Autowired
+  private AppsV1Api appsApi;
+  @Autowired
+  private CoreV1Api coreApi;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private SharedIndexInformer<V1StatefulSet> statefulSetInformer;
+  private SharedIndexInformer<V1Pod> podInformer;
+  private Lister<V1StatefulSet> statefulSetLister;
+  private Lister<V1Pod> podLister;
+
+  @PostConstruct
+  void start() {
+    if (!serverOptions.getCache().isEnabled()) {
+      return;
+    }
+
+    String namespace = serverOptions.getNamespace();
+    String selector = String.format("%s=%s", KubernetesServerInstanceService.LABEL_MANAGED_BY,
+        KubernetesServerInstanceService.VALUE_MANAGED_BY);
+    long resyncMillis = serverOptions.getCache().getResyncPeriod().toMillis();
+
+    statefulSetInformer = informerFactory.sharedIndexInformerFor( //
+        params -> appsApi //
+            .listNamespacedStatefulSet(namespace) //
+            .labelSelector(selector) //
+            .resourceVersion(params.resourceVersion) //
+            .timeoutSeconds(params.timeoutSeconds) //
+            .watch(params.watch) //
+            .buildCall(null), //
+        V1StatefulSet.class, //
+        V1StatefulSetList.class, //
+        resyncMillis);
+
+    podInformer = informerFactory.sharedIndexInformerFor( //
+        params -> coreApi //
+            .listNamespacedPod(namespace) //
+            .labelSelector(selector) //
+            .resourceVersion(params.resourceVersion) //
+            .timeoutSeconds(params.timeoutSeconds) //
+            .watch(params.watch) //
+            .buildCall(null), //
+        V1Pod.class, //
+        V1PodList.class, //
+        resyncMillis);
+
+    statefulSetInformer.addEventHandler(trackEvents(RESOURCE_STATEFULSET, statefulSetInformer));
+    podInformer.addEventHandler(trackEvents(RESOURCE_POD, podInformer));
+
+    statefulSetLister = new Lister<>(statefulSetInformer.getIndexer(), namespace);
+    podLister = new Lister<>(podInformer.getIndexer(), namespace);
+
+    informerFactory.startAllRegisteredInformers();
+  }
+
+  @PreDestroy
+  void stop() {
+    informerFactory.stopAllRegisteredInformers();
+  }
+
+  public boolean isSynced() {
+    boolean synced = statefulSetInformer != null //
+        && statefulSetInformer.hasSynced() //
+        && podInformer.hasSynced();
+    CACHE_SYNCED.labels(RESOURCE_STATEFULSET).set(synced ? 1 : 0);
+    CACHE_SYNCED.labels(RESOURCE_POD).set(synced ? 1 : 0);
+    return synced;
+  }
+
+  /**
+   * @return lo StatefulSet in cache o {@code null} se assente o se la cache non è sincronizzata
+   */
+  public V1StatefulSet getStatefulSet(String name) {
+    return isSynced() ? statefulSetLister.get(name) : null;
+  }
+
+  public List<V1StatefulSet> listStatefulSets() {
+    return statefulSetLister.list();
+  }
+
+  /**
+   * @return il Pod in cache o {@code null} se assente o se la cache non è sincronizzata
+   */
+  public V1Pod getPod(String name) {
+    return isSynced() ? podLister.get(name) : null;
+  }
+
+  public void addStatefulSetHandler(ResourceEventHandler<V1StatefulSet> handler) {
+    if (statefulSetInformer != null) {
+      statefulSetInformer.addEventHandler(handler);
+    }
+  }
+
+  public void addPodHandler(ResourceEventHandler<V1Pod> handler) {
+    if (podInformer != null) {
+      podInformer.addEventHandler(handler);
+    }
+  }
+
+  public void recordRead(String resource, boolean fromCache) {
+    CACHE_READS.labels(resource, fromCache ? "cache" : "live").inc();
+  }
+
+  private <T extends KubernetesObject> ResourceEventHandler<T> trackEvents(String resource,
+      SharedIndexInformer<T> informer) {
+    return new ResourceEventHandler<T>() {
+      @Override
+      public void onAdd(T obj) {
+        touch();
+      }
+
+      @Override
+      public void onUpdate(T oldObj, T newObj) {
+        // Il resync periodico rinotifica oggetti invariati: non è un evento della watch
+        if (!Objects.equals(oldObj.getMetadata().getResourceVersion(),
+            newObj.getMetadata().getResourceVersion())) {
+          touch();
+        }
+      }
+
+      @Override
+      public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+        touch();
+      }
+
+      private void touch() {
+        CACHE_LAST_EVENT.labels(resource).setToCurrentTime();
+        CACHE_SIZE.labels(resource).set(informer.getIndexer().list().size());
+      }
+    };
+  }
+
+}
@@ -1,26 +1,33 @@
 package it.lorisdemicheli.minecraft_servers_controller.service;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.lang3.Strings;
 import org.apache.commons.lang3.function.FailableRunnable;
 import org.apache.commons.lang3.function.FailableSupplier;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.kubernetes.client.Exec;
-import io.kubernetes.client.PodLogs;
 import io.kubernetes.client.custom.IntOrString;
 import io.kubernetes.client.custom.Quantity;
 import io.kubernetes.client.openapi.ApiException;
@@ -28,6 +35,7 @@ import io.kubernetes.client.openapi.apis.AppsV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.V1Container;
 import io.kubernetes.client.openapi.models.V1EnvVar;
+import io.kubernetes.client.openapi.models.V1EnvVarSource;
 import io.kubernetes.client.openapi.models.V1ExecAction;
 import io.kubernetes.client.openapi.models.V1LabelSelector;
 import io.kubernetes.client.openapi.models.V1ObjectMeta;
@@ -39,6 +47,8 @@ import io.kubernetes.client.openapi.models.V1PodSpec;
 import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
 import io.kubernetes.client.openapi.models.V1Probe;
 import io.kubernetes.client.openapi.models.V1ResourceRequirements;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretKeySelector;
 import io.kubernetes.client.openapi.models.V1Service;
 import io.kubernetes.client.openapi.models.V1ServicePort;
 import io.kubernetes.client.openapi.models.V1ServiceSpec;
@@ -48,30 +58,59 @@ import io.kubernetes.client.openapi.models.V1StatefulSetSpec;
 import io.kubernetes.client.openapi.models.V1Volume;
 import io.kubernetes.client.openapi.models.V1VolumeMount;
 import io.kubernetes.client.openapi.models.V1VolumeResourceRequirements;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ArchiveFormat;
+import it.lorisdemicheli.minecraft_servers_controller.domain.BatchCommand;
+import it.lorisdemicheli.minecraft_servers_controller.domain.CommandResult;
 import it.lorisdemicheli.minecraft_servers_controller.domain.ConfigurableOptions;
 import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileEntry.FileType;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperation;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileOperationResult;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FilePage;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileSort;
+import it.lorisdemicheli.minecraft_servers_controller.domain.FileStat;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogLevel;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogLine;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogRecord;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SearchMatch;
 import it.lorisdemicheli.minecraft_servers_controller.domain.Server;
 import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo;
-import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Description;
-import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Players;
-import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo.Version;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerLogLine;
 import it.lorisdemicheli.minecraft_servers_controller.domain.ServerState;
+import it.lorisdemicheli.minecraft_servers_controller.domain.SyncReport;
 import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadRequest;
+import it.lorisdemicheli.minecraft_servers_controller.domain.UploadSession;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ApiRuntimeException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import it.lorisdemicheli.minecraft_servers_controller.exception.PayloadTooLargeException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceAlreadyExistsException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ResourceNotFoundException;
 import it.lorisdemicheli.minecraft_servers_controller.exception.ServerException;
+import it.lorisdemicheli.minecraft_servers_controller.protocol.RconClient;
+import it.lorisdemicheli.minecraft_servers_controller.protocol.RconConnectionPool;
+import it.lorisdemicheli.minecraft_servers_controller.protocol.ServerListPingClient;
 import jakarta.annotation.Nonnull;
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
 
 @Service
 public class KubernetesServerInstanceService {
 
-  @Autowired
-  private ObjectMapper objectMapper;
+  private static final Histogram PING_DURATION = Histogram.build() //
+      .name("minecraft_controller_server_ping_duration_seconds") //
+      .help("Duration of the Server List Ping used for the live server info") //
+      .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5) //
+      .register();
+
+  private static final Counter PING_FAILURES = Counter.build() //
+      .name("minecraft_controller_server_ping_failures_total") //
+      .help("Server List Pings that failed or timed out on running servers") //
+      .labelNames("server") //
+      .register();
+
   @Autowired
   private CoreV1Api coreApi;
   @Autowired
@@ -79,16 +118,32 @@ public class KubernetesServerInstanceService {
   @Autowired
   private AppsV1Api appsApi;
   @Autowired
-  private PodLogs podLogs;
-  @Autowired
   private KubernetesFileSystemService kubernetesFileSystemService;
   @Autowired
   private MinecraftServerOptions serverOptions;
+  @Autowired
+  private KubernetesResourceCache resourceCache;
+  @Autowired
+  private ServerListPingClient pingClient;
+  @Autowired
+  private RconConnectionPool rconPool;
+  @Autowired
+  private ChunkedUploadService chunkedUploadService;
+  @Autowired
+  private DeltaSyncService deltaSyncService;
+  @Autowired
+  private BlobStore blobStore;
+  @Autowired
+  private ServerLogService serverLogService;
+  @Autowired
+  private LogStore logStore;
+  @Autowired
+  private ServerLogMetrics serverLogMetrics;
 
   private final static String LABEL_PREFIX = "it.lorisdemicheli/";
 
-  private final static String LABEL_SERVER_NAME = LABEL_PREFIX + "app";
-  private final static String LABEL_SERVER_TYPE = LABEL_PREFIX + "server-type";
+  final static String LABEL_SERVER_NAME = LABEL_PREFIX + "app";
+  final static String LABEL_SERVER_TYPE = LABEL_PREFIX + "server-type";
   private final static String LABEL_SERVER_CPU = LABEL_PREFIX + "cpu";
   private final static String LABEL_SERVER_MEMORY = LABEL_PREFIX + "memory";
 
@@ -98,12 +153,12 @@ public class KubernetesServerInstanceService {
       LABEL_PREFIX + "modrinth-project-id";
   private final static String LABEL_SERVER_CURSEFORGE_URL = LABEL_PREFIX + "curseforge-url";
 
-  private final static String LABEL_MANAGED_BY = "managed-by";
-  private final static String VALUE_MANAGED_BY = "minecraft-controller";
+  final static String LABEL_MANAGED_BY = "managed-by";
+  final static String VALUE_MANAGED_BY = "minecraft-controller";
 
   private final static String CONTAINER_NAME = "minecraft";
-
-  private final Map<String, Flux<String>> activeStreams = new ConcurrentHashMap<>();
+  private final static int MINECRAFT_PORT = 25565;
+  private final static String RCON_SECRET_KEY = "password";
 
   public Server createServer(@Nonnull String serverName, @Nonnull Type type,
       @Nonnull ConfigurableOptions options) {
@@ -144,6 +199,7 @@ public class KubernetesServerInstanceService {
     envs.add(new V1EnvVar().name("CREATE_CONSOLE_IN_PIPE").value("TRUE"));
     envs.add(new V1EnvVar().name("MEMORY").value(javaMemory));
     envs.add(new V1EnvVar().name("JVM_OPTS").value("--enable-native-access=ALL-UNNAMED"));
+    envs.addAll(createRconEnv(serverName));
 
     // 4. Risorse e Probes
     V1ResourceRequirements resources = new V1ResourceRequirements()
@@ -171,8 +227,8 @@ public class KubernetesServerInstanceService {
             .selector(genericLabels) //
             .addPortsItem(new V1ServicePort() //
                 .protocol("TCP") //
-                .port(25565) //
-                .targetPort(new IntOrString(25565))));
+                .port(MINECRAFT_PORT) //
+                .targetPort(new IntOrString(MINECRAFT_PORT))));
 
     // 6. Creazione StatefulSet
     V1StatefulSet statefulSet = new V1StatefulSet() //
@@ -221,6 +277,9 @@ public class KubernetesServerInstanceService {
       coreApi //
           .createNamespacedService(serverOptions.getNamespace(), service) //
           .execute(); //
+      if (rconPool.isEnabled()) {
+        applyRconSecret(serverName, genericLabels);
+      }
       V1StatefulSet createdSts = appsApi //
           .createNamespacedStatefulSet(serverOptions.getNamespace(), statefulSet) //
           .execute();
@@ -231,16 +290,22 @@ public class KubernetesServerInstanceService {
 
   public Server getServer(String serverName) {
     return apiExceptionRetrieve(() -> {
-      V1StatefulSet statefulSet =
-          appsApi.readNamespacedStatefulSet(serverName, serverOptions.getNamespace()) //
-              .execute();
+      V1StatefulSet statefulSet = readStatefulSet(serverName);
 
       return transform(statefulSet);
     });
   }
 
   public List<Server> getServerList() {
+    if (resourceCache.isSynced()) {
+      resourceCache.recordRead(KubernetesResourceCache.RESOURCE_STATEFULSET, true);
+      return resourceCache.listStatefulSets().stream() //
+          .map(this::transform) //
+          .toList();
+    }
+
     return apiExceptionRetrieve(() -> {
+      resourceCache.recordRead(KubernetesResourceCache.RESOURCE_STATEFULSET, false);
       V1StatefulSetList list = appsApi //
           .listNamespacedStatefulSet(serverOptions.getNamespace()) //
           .labelSelector(String.format("%s=%s", LABEL_MANAGED_BY, VALUE_MANAGED_BY)) //
@@ -295,6 +360,7 @@ public class KubernetesServerInstanceService {
       envs.add(new V1EnvVar().name("EULA").value(Boolean.toString(server.isEula())));
       envs.add(new V1EnvVar().name("CREATE_CONSOLE_IN_PIPE").value("TRUE"));
       envs.add(new V1EnvVar().name("MEMORY").value(memoryLimit));
+      envs.addAll(createRconEnv(server.getName()));
 
       V1Container container = existingSts.getSpec().getTemplate().getSpec().getContainers().get(0);
       container.setEnv(envs);
@@ -305,6 +371,10 @@ public class KubernetesServerInstanceService {
 
       container.setResources(resources);
 
+      // I server creati prima del Secret avevano la password in chiaro nell'env
+      if (rconPool.isEnabled()) {
+        applyRconSecret(server.getName(), genericLabels);
+      }
       V1StatefulSet updatedSts = appsApi //
           .replaceNamespacedStatefulSet(server.getName(), serverOptions.getNamespace(), existingSts) //
           .execute();
@@ -327,6 +397,20 @@ public class KubernetesServerInstanceService {
           .deleteNamespacedService(serverName, serverOptions.getNamespace()) //
           .execute();
 
+      try {
+        coreApi //
+            .deleteNamespacedSecret(getRconSecretName(serverName), serverOptions.getNamespace()) //
+            .execute();
+      } catch (ApiException e) {
+        // RCON disabilitato o server creato prima del Secret
+        if (e.getCode() != 404) {
+          throw e;
+        }
+      }
+
+      serverLogService.remove(serverName);
+      rconPool.evict(serverName);
+      PING_FAILURES.remove(serverName);
       return true;
     });
   }
@@ -388,67 +472,205 @@ public class KubernetesServerInstanceService {
   public ServerInfo getServerInfo(String serverName) {
     return apiExceptionRetrieve(() -> {
       ServerInfo info = new ServerInfo();
-      V1StatefulSet sts = appsApi //
-          .readNamespacedStatefulSet(serverName, serverOptions.getNamespace()) //
-          .execute();
+      V1StatefulSet sts = readStatefulSet(serverName);
       Integer replicas = sts.getSpec().getReplicas();
 
-      if (replicas == null || replicas == 0) {
-        info.setState(ServerState.STOPPED);
-        return info;
+      V1Pod pod = null;
+      if (replicas != null && replicas > 0) {
+        try {
+          pod = readPod(getPodName(serverName));
+        } catch (ApiException e) {
+          // Pod non ancora creato: il server risulta fermo
+        }
       }
 
-      V1Pod pod;
-      try {
-        pod = coreApi //
-            .readNamespacedPod(getPodName(serverName), serverOptions.getNamespace()) //
-            .execute();
-      } catch (ApiException e) {
-        info.setState(ServerState.STOPPED);
-        return info;
+      info.setState(resolveState(sts, pod));
+      ServerInfo result =
+          info.getState() == ServerState.RUNNING ? fetchLiveMonitorData(info, serverName) : info;
+      result.setLogStats(serverLogMetrics.getStats(serverName));
+      return result;
+    });
+  }
+
+  static ServerState resolveState(V1StatefulSet sts, V1Pod pod) {
+    Integer replicas = sts.getSpec().getReplicas();
+
+    if (replicas == null || replicas == 0 || pod == null) {
+      return ServerState.STOPPED;
+    }
+
+    if (pod.getMetadata().getDeletionTimestamp() != null) {
+      return ServerState.SHUTDOWN;
+    }
+
+    boolean isReady = pod.getStatus() != null && pod.getStatus().getConditions() != null
+        && pod.getStatus().getConditions() //
+            .stream().anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()));
+
+    return isReady ? ServerState.RUNNING : ServerState.STARTING;
+  }
+
+  /**
+   * Log del server: prima lo storico tenuto dal controller, poi le nuove righe. Le righe sono
+   * raggruppate in frame separati da {@code \n}, per non mandare un evento SSE per ogni riga
+   * quando il server ne scrive migliaia al secondo.
+   *
+   * @param tail numero di righe dello storico da ripetere
+   * @param since ripete lo storico a partire da questo istante
+   */
+  public Flux<String> logs(String serverName, Integer tail, Instant since) {
+    return logBatches(serverName, tail, since).map(lines -> String.join("\n", lines));
+  }
+
+  /**
+   * Come {@link #logs}, con le righe di ogni frame separate.
+   */
+  public Flux<List<String>> logBatches(String serverName, Integer tail, Instant since) {
+    if (tail != null && tail < 0) {
+      throw new ConfigurationException("tail must not be negative");
+    }
+    // Ogni nome crea un buffer e un lettore che restano fino alla cancellazione del server
+    if (!serverExist(serverName)) {
+      throw new ResourceNotFoundException("Server not found: " + serverName);
+    }
+    MinecraftServerOptions.Logs options = serverOptions.getLogs();
+    return serverLogService.logs(serverName, tail, since) //
+        .map(LogLine::text) //
+        .bufferTimeout(options.getBatchSize(), options.getBatchInterval(), true);
+  }
+
+  /**
+   * Log di più server in un solo stream a frame, con le righe etichettate con il server.
+   *
+   * @param serverNames server scelti per nome
+   * @param labelSelector aggiunge i server le cui label corrispondono, es. {@code tier=prod}
+   * @param levels livello minimo: {@code WARN} per tutti i server, {@code lobby:DEBUG} per uno
+   */
+  public Flux<List<ServerLogLine>> aggregatedLogs(List<String> serverNames, String labelSelector,
+      List<String> levels, Integer tail, Instant since) {
+    MinecraftServerOptions.Logs options = serverOptions.getLogs();
+    if (tail != null && tail < 0) {
+      throw new ConfigurationException("tail must not be negative");
+    }
+    Set<String> names = new TreeSet<>();
+    if (serverNames != null && !serverNames.isEmpty()) {
+      Set<String> existing = new HashSet<>(getServerList().stream() //
+          .map(Server::getName) //
+          .toList());
+      for (String serverName : serverNames) {
+        if (!existing.contains(serverName)) {
+          throw new ResourceNotFoundException("Server not found: " + serverName);
+        }
+        names.add(serverName);
       }
+    }
+    if (labelSelector != null && !labelSelector.isBlank()) {
+      names.addAll(apiExceptionRetrieve(() -> appsApi //
+          .listNamespacedStatefulSet(serverOptions.getNamespace()) //
+          .labelSelector(String.format("%s=%s,%s", LABEL_MANAGED_BY, VALUE_MANAGED_BY,
+              labelSelector)) //
+          .execute() //
+          .getItems().stream() //
+          .map(sts -> sts.getMetadata().getName()) //
+          .toList()));
+    }
+    if (names.isEmpty()) {
+      throw new ConfigurationException("No server selected");
+    }
+    if (names.size() > options.getMaxAggregatedServers()) {
+      throw new ConfigurationException(
+          "Too many servers, max " + options.getMaxAggregatedServers());
+    }
 
-      if (pod.getMetadata().getDeletionTimestamp() != null) {
-        info.setState(ServerState.SHUTDOWN);
-        return info;
+    LogLevel defaultLevel = LogLevel.TRACE;
+    Map<String, LogLevel> serverLevels = new HashMap<>();
+    for (String level : levels != null ? levels : List.<String>of()) {
+      int colon = level.lastIndexOf(':');
+      try {
+        LogLevel parsed = LogLevel.valueOf(level.substring(colon + 1).toUpperCase(Locale.ROOT));
+        if (colon < 0) {
+          defaultLevel = parsed;
+        } else {
+          serverLevels.put(level.substring(0, colon), parsed);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new ConfigurationException("Invalid level: " + level);
       }
+    }
+    Map<String, LogLevel> minLevels = new LinkedHashMap<>();
+    for (String name : names) {
+      minLevels.put(name, serverLevels.getOrDefault(name, defaultLevel));
+    }
 
-      boolean isReady = pod.getStatus().getConditions() //
-          .stream().anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()));
+    return serverLogService.logs(minLevels, tail, since) //
+        .bufferTimeout(options.getBatchSize(), options.getBatchInterval(), true);
+  }
 
-      if (!isReady) {
-        info.setState(ServerState.STARTING);
-        return info;
+  /**
+   * Righe salvate dal controller nell'intervallo {@code [from, to)} che contengono {@code regex}.
+   */
+  public Flux<LogRecord> logHistory(String serverName, Instant from, Instant to, String regex,
+      boolean ignoreCase, Integer limit) {
+    MinecraftServerOptions.LogStore options = serverOptions.getLogStore();
+    if (!logStore.isEnabled()) {
+      throw new ConfigurationException("Log store disabled");
+    }
+    if (from != null && to != null && !from.isBefore(to)) {
+      throw new ConfigurationException("from must be before to");
+    }
+    int matches = limit != null ? limit : options.getMaxMatches();
+    if (matches < 1 || matches > options.getMaxMatches()) {
+      throw new ConfigurationException("limit must be between 1 and " + options.getMaxMatches());
+    }
+    Pattern pattern = null;
+    if (regex != null && !regex.isEmpty()) {
+      try {
+        pattern = Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+      } catch (PatternSyntaxException e) {
+        throw new ConfigurationException("Invalid regex: " + e.getDescription());
       }
-
-      info.setState(ServerState.RUNNING);
-      return fetchLiveMonitorData(info, serverName);
-    });
+    }
+    return logStore.query(serverName, from, to, pattern, matches);
   }
 
-  public Flux<String> logs(String serverName) {
-    return activeStreams.computeIfAbsent(serverName, k -> Flux.<String>create(sink -> {
-      try (InputStream is = podLogs.streamNamespacedPodLog(serverOptions.getNamespace(),
-          getPodName(serverName), null)) {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
-        while (!sink.isCancelled() && (line = reader.readLine()) != null) {
-          sink.next(line);
+  /**
+   * Invia un comando alla console del server.
+   *
+   * @return l'output del comando se inviato via RCON, {@code null} se si è dovuto ripiegare sulla
+   *         pipe della console, che non restituisce output
+   */
+  public String sendCommand(String serverName, String command) {
+    if (command == null || command.isBlank()) {
+      throw new ConfigurationException("A command is required");
+    }
+    if (rconPool.isEnabled()) {
+      RconClient client = null;
+      try {
+        String host = apiExceptionRetrieve(() -> getPodAddress(serverName));
+        client = rconPool.acquire(serverName, host);
+      } catch (IOException | RuntimeException e) {
+        // RCON non disponibile (server vecchio, in avvio o password diversa): si usa la pipe
+      }
+      if (client != null) {
+        // Da qui il comando può essere già arrivato al server: ripeterlo sulla pipe lo
+        // eseguirebbe due volte, quindi timeout e connessioni cadute sono errori
+        try {
+          return client.command(command) //
+              .get(rconPool.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof TimeoutException) {
+            throw new ServerException("RCON command timed out, it may have been executed", e);
+          }
+          throw new ServerException("RCON command failed: " + e.getCause().getMessage(), e);
+        } catch (TimeoutException e) {
+          throw new ServerException("RCON command timed out, it may have been executed", e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ServerException(e);
         }
-        sink.complete();
-      } catch (Exception e) {
-        sink.error(e);
-      } finally {
-        activeStreams.remove(serverName);
       }
-    }).subscribeOn(Schedulers.boundedElastic()) //
-        .publish() //
-        .refCount() //
-        .cache(10) //
-    );
-  }
+    }
 
-  public void sendCommand(String serverName, String command) {
     apiExceptionRetrieve(() -> {
       String cmd[] = {"gosu", "minecraft", "mc-send-to-console", command};
       // TODO cambiare container
@@ -462,41 +684,389 @@ public class KubernetesServerInstanceService {
               true);
       proc.waitFor();
     });
+    return null;
   }
 
-  public List<FileEntry> listFiles(String serverName, String path) {
+  /**
+   * Esegue i comandi in ordine sulla stessa connessione RCON, o in un'unica sessione exec se RCON
+   * non è disponibile. I comandi non ancora inviati allo scadere di
+   * {@code console.maxBatchDuration} risultano non eseguiti.
+   */
+  public List<CommandResult> sendCommands(String serverName, List<BatchCommand> commands) {
+    MinecraftServerOptions.Console options = serverOptions.getConsole();
+    if (commands == null || commands.isEmpty()) {
+      throw new ConfigurationException("At least one command is required");
+    }
+    if (commands.size() > options.getMaxBatchSize()) {
+      throw new ConfigurationException("Too many commands, max " + options.getMaxBatchSize());
+    }
+    long totalDelay = 0;
+    for (BatchCommand command : commands) {
+      if (command == null || command.command() == null || command.command().isBlank()) {
+        throw new ConfigurationException("Every entry needs a command");
+      }
+      if (command.delayMillis() < 0
+          || command.delayMillis() > options.getMaxCommandDelay().toMillis()) {
+        throw new ConfigurationException(
+            "delayMillis must be between 0 and " + options.getMaxCommandDelay().toMillis());
+      }
+      totalDelay += command.delayMillis();
+    }
+    if (totalDelay > options.getMaxBatchDuration().toMillis()) {
+      throw new ConfigurationException(
+          "Total delay longer than " + options.getMaxBatchDuration().toMillis() + "ms");
+    }
+
+    if (rconPool.isEnabled()) {
+      RconClient client = null;
+      try {
+        String host = apiExceptionRetrieve(() -> getPodAddress(serverName));
+        client = rconPool.acquire(serverName, host);
+      } catch (IOException | RuntimeException e) {
+        // RCON non disponibile: si usa la pipe della console
+      }
+      if (client != null) {
+        RconClient connection = client;
+        return apiExceptionRetrieve(() -> sendCommandsRcon(connection, commands));
+      }
+    }
+
+    return apiExceptionRetrieve(() -> sendCommandsExec(serverName, commands));
+  }
+
+  public FilePage listFiles(String serverName, String path, FileSort sort, boolean descending,
+      Set<FileType> types, Integer limit, String cursor) {
+    if (limit != null && limit < 1) {
+      throw new ConfigurationException("limit must be positive");
+    }
+    FileEntry after = cursor == null ? null : FilePage.decodeCursor(cursor, sort, descending);
     return apiExceptionRetrieve(() -> {
       return kubernetesFileSystemService //
           .listFiles( //
               serverOptions.getNamespace(), //
               getPodName(serverName), //
               CONTAINER_NAME, //
-              Strings.CS.prependIfMissing(path, "."));
+              Strings.CS.prependIfMissing(path, "."), //
+              sort, //
+              descending, //
+              types, //
+              limit, //
+              after);
     });
   }
 
+  public Flux<FileEntry> walkFiles(String serverName, String path, Integer maxDepth,
+      List<String> globs, boolean includeHidden) {
+    return kubernetesFileSystemService //
+        .walkFiles( //
+            serverOptions.getNamespace(), //
+            getPodName(serverName), //
+            CONTAINER_NAME, //
+            Strings.CS.prependIfMissing(path, "."), //
+            maxDepth, //
+            globs, //
+            includeHidden);
+  }
+
+
+  public Flux<SearchMatch> searchFiles(String serverName, String path, String regex,
+      List<String> globs, boolean ignoreCase, Integer maxMatches, Long maxFileSize,
+      Integer context) {
+    MinecraftServerOptions.Search options = serverOptions.getSearch();
+    if (regex == null || regex.isEmpty()) {
+      throw new ConfigurationException("A search pattern is required");
+    }
+    // Le ERE di grep sono quasi un sottoinsieme delle regex Java: gli errori di sintassi si
+    // riportano subito invece di chiudere lo stream a metà
+    try {
+      Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      throw new ConfigurationException("Invalid regex: " + e.getDescription());
+    }
+    int matches = maxMatches != null ? maxMatches : options.getMaxMatches();
+    if (matches < 1 || matches > options.getMaxMatches()) {
+      throw new ConfigurationException("maxMatches must be between 1 and " + options.getMaxMatches());
+    }
+    long fileSize = maxFileSize != null ? maxFileSize : options.getMaxFileSize().toBytes();
+    if (fileSize < 1 || fileSize > options.getMaxFileSize().toBytes()) {
+      throw new ConfigurationException(
+          "maxFileSize must be between 1 and " + options.getMaxFileSize().toBytes());
+    }
+    int lines = context != null ? context : 0;
+    if (lines < 0 || lines > options.getMaxContext()) {
+      throw new ConfigurationException("context must be between 0 and " + options.getMaxContext());
+    }
+    return kubernetesFileSystemService //
+        .searchFiles( //
+            serverOptions.getNamespace(), //
+            getPodName(serverName), //
+            CONTAINER_NAME, //
+            Strings.CS.prependIfMissing(path, "."), //
+            regex, //
+            globs, //
+            ignoreCase, //
+            matches, //
+            fileSize, //
+            lines, //
+            options.getTimeout());
+  }
 
-  public void downloadFile(String serverName, String path, OutputStream out) {
+  public void downloadFile(String serverName, String path, long size, OutputStream out) {
     apiExceptionRetrieve(() -> {
-      kubernetesFileSystemService //
+      try (InputStream in = kubernetesFileSystemService //
           .downloadFile( //
               serverOptions.getNamespace(), //
               getPodName(serverName), //
               CONTAINER_NAME, //
-              Strings.CS.prependIfMissing(path, ".")) //
-          .transferTo(out);
+              Strings.CS.prependIfMissing(path, "."), //
+              size)) {
+        in.transferTo(out);
+      }
+    });
+  }
+
+  public FileStat statFile(String serverName, String path) {
+    FileStat stat = apiExceptionRetrieve(() -> {
+      return kubernetesFileSystemService.statFile( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          Strings.CS.prependIfMissing(path, "."));
+    });
+    if (stat == null) {
+      throw new ResourceNotFoundException();
+    }
+    return stat;
+  }
+
+  public void downloadFile(String serverName, String path, long offset, long length,
+      OutputStream out) {
+    apiExceptionRetrieve(() -> {
+      try (InputStream in = kubernetesFileSystemService //
+          .downloadRange( //
+              serverOptions.getNamespace(), //
+              getPodName(serverName), //
+              CONTAINER_NAME, //
+              Strings.CS.prependIfMissing(path, "."), //
+              offset, //
+              length)) {
+        in.transferTo(out);
+      }
+    });
+  }
+
+  /**
+   * Controlli da fare prima di iniziare la risposta dell'archivio: dopo i primi byte un errore non
+   * può più diventare uno stato HTTP.
+   */
+  public void checkArchive(String serverName, String path, ArchiveFormat format) {
+    if (!statFile(serverName, path).directory()) {
+      throw new ConfigurationException("Path is not a directory");
+    }
+    if (format == ArchiveFormat.TAR_ZST && !apiExceptionRetrieve(() -> kubernetesFileSystemService //
+        .hasCommand(serverOptions.getNamespace(), getPodName(serverName), CONTAINER_NAME, "zstd"))) {
+      throw new ConfigurationException("zstd is not available in the server container");
+    }
+  }
+
+  public void downloadArchive(String serverName, String path, ArchiveFormat format, int level,
+      List<String> includes, List<String> excludes, OutputStream out) {
+    apiExceptionRetrieve(() -> {
+      kubernetesFileSystemService.writeArchive( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          Strings.CS.prependIfMissing(path, "."), //
+          format, //
+          level, //
+          includes, //
+          excludes, //
+          out);
     });
   }
 
   public void uploadFile(String serverName, String destPath, Resource resource) {
+    String fullPath = Strings.CS.appendIfMissing(destPath, "/", resource.getFilename());
+    uploadFile(serverName, fullPath, apiExceptionRetrieve(resource::getInputStream),
+        apiExceptionRetrieve(resource::contentLength));
+  }
+
+  /**
+   * Carica il contenuto nel percorso indicato leggendolo in streaming.
+   *
+   * @param size dimensione del contenuto, obbligatoria
+   */
+  public void uploadFile(String serverName, String path, InputStream content, Long size) {
+    uploadFile(serverName, path, content, size, null);
+  }
+
+  /**
+   * Come {@link #uploadFile(String, String, InputStream, Long)}, ma se {@code sha256} è già in
+   * {@link BlobStore} il contenuto viene copiato da lì senza leggere la richiesta: con
+   * {@code Expect: 100-continue} il client non invia nemmeno il corpo. Altrimenti il contenuto
+   * viene prima salvato nello store, così gli altri server lo trovano.
+   */
+  public void uploadFile(String serverName, String path, InputStream content, Long size,
+      String sha256) {
+    if (size == null || size < 0) {
+      throw new ConfigurationException("Content-Length required");
+    }
+    if (size > serverOptions.getUpload().getMaxSize().toBytes()) {
+      throw new PayloadTooLargeException(
+          "Upload larger than " + serverOptions.getUpload().getMaxSize());
+    }
+    if (sha256 != null && blobStore.isEnabled()) {
+      if (!pushCachedBlob(serverName, path, sha256)) {
+        storeBlob(sha256, content, size);
+        pushBlob(serverName, path, sha256);
+      }
+      return;
+    }
     apiExceptionRetrieve(() -> {
-      String fullPath = Strings.CS.appendIfMissing(destPath, "/", resource.getFilename());
       kubernetesFileSystemService.uploadFile( //
           serverOptions.getNamespace(), //
           getPodName(serverName), //
           CONTAINER_NAME, //
-          fullPath, //
-          resource.getInputStream());
+          path, //
+          content, //
+          size);
+    });
+  }
+
+  public Long getBlobSize(String sha256) {
+    return blobStore.size(sha256);
+  }
+
+  public long storeBlob(String sha256, InputStream content, Long size) {
+    // Già presente: con "Expect: 100-continue" il corpo non viene nemmeno inviato
+    Long stored = blobStore.size(sha256);
+    if (stored != null) {
+      return stored;
+    }
+    return apiExceptionRetrieve(() -> blobStore.put(sha256, content, size));
+  }
+
+  /**
+   * Copia nel pod un contenuto di {@link BlobStore}.
+   */
+  public void pushBlob(String serverName, String path, String sha256) {
+    if (!pushCachedBlob(serverName, path, sha256)) {
+      throw new ResourceNotFoundException();
+    }
+  }
+
+  private boolean pushCachedBlob(String serverName, String path, String sha256) {
+    return apiExceptionRetrieve(() -> {
+      Long size = blobStore.size(sha256);
+      InputStream blob = size != null ? blobStore.open(sha256) : null;
+      if (blob == null) {
+        return false;
+      }
+      kubernetesFileSystemService.uploadFile( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          path, //
+          blob, //
+          size);
+      return true;
+    });
+  }
+
+  public SyncReport syncFile(String serverName, String path, InputStream content, Long size,
+      Integer blockSize, boolean dryRun) {
+    if (path == null || path.isBlank() || path.endsWith("/")) {
+      throw new ConfigurationException("A file path is required");
+    }
+    if (size != null && size > serverOptions.getUpload().getMaxSize().toBytes()) {
+      throw new PayloadTooLargeException(
+          "Upload larger than " + serverOptions.getUpload().getMaxSize());
+    }
+    // Senza Content-Length (chunked) il limite si controlla durante la lettura
+    InputStream body = size != null ? content
+        : new SizeLimitedInputStream(content, serverOptions.getUpload().getMaxSize().toBytes());
+    FileStat stat = apiExceptionRetrieve(() -> {
+      return kubernetesFileSystemService.statFile( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          path);
+    });
+    if (stat != null && stat.directory()) {
+      throw new ConfigurationException("Path is a directory");
+    }
+    return apiExceptionRetrieve(() -> {
+      return deltaSyncService.sync( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          path, //
+          body, //
+          blockSize, //
+          dryRun);
+    });
+  }
+
+  public UploadSession createUpload(String serverName, UploadRequest request) {
+    return apiExceptionRetrieve(() -> {
+      return chunkedUploadService.create( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          serverName, //
+          request);
+    });
+  }
+
+  public UploadSession getUpload(String serverName, String uploadId) {
+    return chunkedUploadService.get(serverName, uploadId);
+  }
+
+  public UploadSession uploadChunk(String serverName, String uploadId, int index,
+      InputStream content, Long length, String sha256) {
+    return apiExceptionRetrieve(() -> {
+      return chunkedUploadService.writeChunk(serverName, uploadId, index, content, length, sha256);
+    });
+  }
+
+  public void completeUpload(String serverName, String uploadId, String sha256) {
+    apiExceptionRetrieve(() -> {
+      chunkedUploadService.complete(serverName, uploadId, sha256);
+    });
+  }
+
+  public void abortUpload(String serverName, String uploadId) {
+    apiExceptionRetrieve(() -> {
+      chunkedUploadService.abort(serverName, uploadId);
+    });
+  }
+
+  public List<FileOperationResult> executeFileOperations(String serverName,
+      List<FileOperation> operations, boolean stopOnFailure) {
+    if (operations.size() > serverOptions.getFileOperations().getMaxBatchSize()) {
+      throw new ConfigurationException(
+          "Too many operations, max " + serverOptions.getFileOperations().getMaxBatchSize());
+    }
+    for (FileOperation op : operations) {
+      if (op.type() == null || op.path() == null || op.path().isBlank()) {
+        throw new ConfigurationException("Every operation needs a type and a path");
+      }
+      boolean needsTarget = op.type() == FileOperation.Type.MOVE || op.type() == FileOperation.Type.COPY;
+      if (needsTarget && (op.target() == null || op.target().isBlank())) {
+        throw new ConfigurationException(op.type() + " of " + op.path() + " needs a target");
+      }
+    }
+    if (operations.isEmpty()) {
+      return List.of();
+    }
+    return apiExceptionRetrieve(() -> {
+      return kubernetesFileSystemService.executeOperations( //
+          serverOptions.getNamespace(), //
+          getPodName(serverName), //
+          CONTAINER_NAME, //
+          operations, //
+          stopOnFailure, //
+          serverOptions.getFileOperations().getTimeout());
     });
   }
 
@@ -538,6 +1108,8 @@ public class KubernetesServerInstanceService {
         throw new ResourceNotFoundException();
       }
       throw new ApiRuntimeException(e);
+    } catch (RuntimeException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException("Errore imprevisto", e);
     }
@@ -551,51 +1123,167 @@ public class KubernetesServerInstanceService {
         throw new ResourceNotFoundException();
       }
       throw new ApiRuntimeException(e);
+    } catch (RuntimeException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException("Errore imprevisto", e);
     }
   }
 
-  private ServerInfo fetchLiveMonitorData(ServerInfo info, String serverName)
-      throws InterruptedException, ApiException, IOException {
-    String[] command = {"mc-monitor", "status", "--host", "localhost", "--port", "25565", "--json"};
+  private ServerInfo fetchLiveMonitorData(ServerInfo info, String serverName) {
+    long start = System.nanoTime();
+    return pingClient.ping(getServiceHost(serverName), MINECRAFT_PORT) //
+        .whenComplete((live, e) -> {
+          PING_DURATION.observe((System.nanoTime() - start) / 1e9);
+          if (e != null) {
+            PING_FAILURES.labels(serverName).inc();
+          }
+        }) //
+        .thenApply(live -> {
+          live.setState(info.getState());
+          return live;
+        })
+        // Server non raggiungibile: si restituisce solo lo stato
+        .exceptionally(e -> info) //
+        .join();
+  }
 
-    Process proc = exec.exec( //
-        serverOptions.getNamespace(), //
-        getPodName(serverName), //
-        command, //
-        CONTAINER_NAME, //
-        false, //
-        false);
+  static String getPodName(String serverName) {
+    return serverName + "-0";
+  }
 
-    StringBuilder output = new StringBuilder();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        output.append(line);
+  private List<CommandResult> sendCommandsRcon(RconClient client, List<BatchCommand> commands)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + serverOptions.getConsole().getMaxBatchDuration().toNanos();
+    List<CommandResult> results = new ArrayList<>();
+    for (BatchCommand command : commands) {
+      if (command.delayMillis() > 0) {
+        Thread.sleep(command.delayMillis());
+      }
+      if (System.nanoTime() > deadline) {
+        results.add(new CommandResult(command.command(), false, null, "Not executed", 0));
+        continue;
+      }
+      long start = System.nanoTime();
+      try {
+        String output = client.command(command.command()) //
+            .get(rconPool.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        results.add(new CommandResult(command.command(), true, output, null, elapsedMillis(start)));
+      } catch (ExecutionException | TimeoutException e) {
+        String error = e instanceof ExecutionException ? e.getCause().getMessage() : "Timeout";
+        results.add(new CommandResult(command.command(), false, null, error, elapsedMillis(start)));
       }
     }
+    return results;
+  }
 
-    proc.waitFor(5, TimeUnit.SECONDS);
+  private List<CommandResult> sendCommandsExec(String serverName, List<BatchCommand> commands)
+      throws ApiException, IOException, InterruptedException {
+    // Una riga "indice exit-code inizio fine" per comando, tempi in millisecondi
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < commands.size(); i++) {
+      BatchCommand command = commands.get(i);
+      if (command.delayMillis() > 0) {
+        script.append(String.format(Locale.ROOT, "sleep %.3f; ", command.delayMillis() / 1000.0));
+      }
+      script.append("s=$(date +%s%3N); ") //
+          .append("gosu minecraft mc-send-to-console ").append(Shell.quote(command.command())) //
+          .append(" >/dev/null 2>&1; ") //
+          .append("printf '%d %d %s %s\\n' ").append(i).append(" $? $s $(date +%s%3N)\n");
+    }
 
-    if (proc.exitValue() == 0) {
-      JsonNode root = objectMapper.readTree(output.toString());
+    // Il limite sulla durata è applicato nel pod, così lo stdout si chiude in ogni caso
+    long seconds = Math.max(1, serverOptions.getConsole().getMaxBatchDuration().toSeconds());
+    String[] command = {"timeout", Long.toString(seconds), "sh", "-c", script.toString()};
+    Process proc = exec.exec(serverOptions.getNamespace(), getPodName(serverName), command,
+        CONTAINER_NAME, false, false);
+    String output;
+    try {
+      try (InputStream is = proc.getInputStream()) {
+        output = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      if (!proc.waitFor(15, TimeUnit.SECONDS)) {
+        throw new ServerException("Console command batch did not terminate");
+      }
+    } finally {
+      proc.destroy();
+    }
+
+    CommandResult[] results = new CommandResult[commands.size()];
+    for (String line : output.split("\n")) {
+      String[] p = line.trim().split(" ");
+      if (p.length != 4) {
+        continue;
+      }
+      int index = Integer.parseInt(p[0]);
+      int exitCode = Integer.parseInt(p[1]);
+      long duration = Long.parseLong(p[3]) - Long.parseLong(p[2]);
+      results[index] = new CommandResult(commands.get(index).command(), exitCode == 0, null,
+          exitCode == 0 ? null : "Exit code " + exitCode, duration);
+    }
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null) {
+        results[i] = new CommandResult(commands.get(i).command(), false, null, "Not executed", 0);
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
 
-      JsonNode serverInfo = root.get("server_info");
+  private String getPodAddress(String serverName) throws ApiException {
+    V1Pod pod = readPod(getPodName(serverName));
+    if (pod.getStatus() == null || pod.getStatus().getPodIP() == null) {
+      throw new ServerException("Pod " + getPodName(serverName) + " has no IP yet");
+    }
+    return pod.getStatus().getPodIP();
+  }
+
+  private List<V1EnvVar> createRconEnv(String serverName) {
+    List<V1EnvVar> envs = new ArrayList<>();
+    if (rconPool.isEnabled()) {
+      envs.add(new V1EnvVar().name("ENABLE_RCON").value("TRUE"));
+      envs.add(new V1EnvVar().name("RCON_PORT").value(Integer.toString(rconPool.getPort())));
+      envs.add(new V1EnvVar().name("RCON_PASSWORD").valueFrom(new V1EnvVarSource() //
+          .secretKeyRef(new V1SecretKeySelector() //
+              .name(getRconSecretName(serverName)) //
+              .key(RCON_SECRET_KEY))));
+    }
+    return envs;
+  }
 
-      if (serverInfo != null && !serverInfo.isNull()) {
-        info.setVersion(objectMapper.treeToValue(serverInfo.get("version"), Version.class));
-        info.setPlayers(objectMapper.treeToValue(serverInfo.get("players"), Players.class));
-        info.setDescription(
-            objectMapper.treeToValue(serverInfo.get("description"), Description.class));
+  // Crea o aggiorna il Secret con la password RCON, letta dal container tramite secretKeyRef
+  private void applyRconSecret(String serverName, Map<String, String> labels)
+      throws ApiException {
+    V1Secret secret = new V1Secret() //
+        .metadata(new V1ObjectMeta() //
+            .name(getRconSecretName(serverName)) //
+            .labels(labels)) //
+        .type("Opaque") //
+        .putStringDataItem(RCON_SECRET_KEY, rconPool.passwordFor(serverName));
+    try {
+      coreApi //
+          .createNamespacedSecret(serverOptions.getNamespace(), secret) //
+          .execute();
+    } catch (ApiException e) {
+      if (e.getCode() != 409) {
+        throw e;
       }
+      coreApi //
+          .replaceNamespacedSecret(getRconSecretName(serverName), serverOptions.getNamespace(),
+              secret) //
+          .execute();
     }
-    proc.destroy();
-    return info;
   }
 
-  private String getPodName(String serverName) {
-    return serverName + "-0";
+  private static String getRconSecretName(String serverName) {
+    return serverName + "-rcon";
+  }
+
+  private String getServiceHost(String serverName) {
+    return String.format("%s.%s.svc", serverName, serverOptions.getNamespace());
   }
 
   private Server transform(V1StatefulSet statefulSet) {
@@ -615,11 +1303,33 @@ public class KubernetesServerInstanceService {
     return server;
   }
 
+  // Letture servite dalla cache degli informer; se non sincronizzata o se l'oggetto non è ancora
+  // arrivato dalla watch (es. subito dopo una create) si ripiega sulla lettura diretta
+  private V1StatefulSet readStatefulSet(String serverName) throws ApiException {
+    V1StatefulSet cached = resourceCache.getStatefulSet(serverName);
+    resourceCache.recordRead(KubernetesResourceCache.RESOURCE_STATEFULSET, cached != null);
+    if (cached != null) {
+      return cached;
+    }
+    return appsApi //
+        .readNamespacedStatefulSet(serverName, serverOptions.getNamespace()) //
+        .execute();
+  }
+
+  private V1Pod readPod(String podName) throws ApiException {
+    V1Pod cached = resourceCache.getPod(podName);
+    resourceCache.recordRead(KubernetesResourceCache.RESOURCE_POD, cached != null);
+    if (cached != null) {
+      return cached;
+    }
+    return coreApi //
+        .readNamespacedPod(podName, serverOptions.getNamespace()) //
+        .execute();
+  }
+
   private boolean serverExist(String serverName) {
     try {
-      appsApi //
-          .readNamespacedStatefulSet(serverName, serverOptions.getNamespace()) //
-          .execute();
+      readStatefulSet(serverName);
       return true;
     } catch (ApiException e) {
       if (e.getCode() == 404) {
@@ -629,4 +1339,38 @@ public class KubernetesServerInstanceService {
     }
   }
 
+  private static class SizeLimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    SizeLimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.remaining = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        consumed(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        consumed(read);
+      }
+      return read;
+    }
+
+    private void consumed(long bytes) {
+      remaining -= bytes;
+      if (remaining < 0) {
+        throw new PayloadTooLargeException("Upload larger than the configured limit");
+      }
+    }
+  }
+
 }
@@ -0,0 +1,121 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogLine;
+
+/**
+ * Buffer circolare delle ultime righe di log di un server, limitato sia nel numero di righe sia
+ * nei byte. Il testo sta in un unico array UTF-8 e ogni riga occupa solo un offset, una lunghezza
+ * e un timestamp, invece di una {@link String} con il suo oggetto e il suo array. Quando uno dei
+ * due limiti è raggiunto le righe più vecchie vengono scartate.
+ * <p>
+ * Le righe sono identificate dal numero di sequenza: chi legge tiene la sequenza della prossima
+ * riga e, se è rimasto troppo indietro, riparte dalla più vecchia ancora presente.
+ */
+public class LogBuffer {
+
+  private final byte[] data;
+  // Indicizzati per sequenza modulo maxLines; gli offset sono assoluti, modulo data.length
+  private final long[] offsets;
+  private final int[] lengths;
+  private final long[] timestamps;
+  private long first = 0;
+  private long next = 0;
+  private long writeOffset = 0;
+
+  public LogBuffer(int maxLines, int maxBytes) {
+    if (maxLines < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("The log buffer must hold at least one line and byte");
+    }
+    this.data = new byte[maxBytes];
+    this.offsets = new long[maxLines];
+    this.lengths = new int[maxLines];
+    this.timestamps = new long[maxLines];
+  }
+
+  /**
+   * Aggiunge una riga; se è più lunga dell'intero buffer ne viene tenuto solo l'inizio.
+   *
+   * @return la sequenza assegnata alla riga
+   */
+  public synchronized long append(Instant timestamp, String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, data.length);
+    while (first < next && (next - first == offsets.length
+        || writeOffset + length - offsets[index(first)] > data.length)) {
+      first++;
+    }
+
+    int position = (int) (writeOffset % data.length);
+    int head = Math.min(length, data.length - position);
+    System.arraycopy(bytes, 0, data, position, head);
+    System.arraycopy(bytes, head, data, 0, length - head);
+
+    int i = index(next);
+    offsets[i] = writeOffset;
+    lengths[i] = length;
+    timestamps[i] = timestamp.toEpochMilli();
+    writeOffset += length;
+    return next++;
+  }
+
+  /**
+   * @return la riga, {@code null} se non è ancora stata scritta o è già stata scartata
+   */
+  public synchronized LogLine get(long sequence) {
+    if (sequence < first || sequence >= next) {
+      return null;
+    }
+    int i = index(sequence);
+    int position = (int) (offsets[i] % data.length);
+    int head = Math.min(lengths[i], data.length - position);
+    byte[] bytes = new byte[lengths[i]];
+    System.arraycopy(data, position, bytes, 0, head);
+    System.arraycopy(data, 0, bytes, head, lengths[i] - head);
+    return new LogLine(sequence, Instant.ofEpochMilli(timestamps[i]),
+        new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  public synchronized long firstSequence() {
+    return first;
+  }
+
+  public synchronized long nextSequence() {
+    return next;
+  }
+
+  /**
+   * @return la sequenza da cui leggere per avere le ultime {@code lines} righe
+   */
+  public synchronized long tail(int lines) {
+    return Math.max(first, next - Math.max(lines, 0));
+  }
+
+  /**
+   * @return la sequenza della prima riga scritta a partire da {@code since}
+   */
+  public synchronized long since(Instant since) {
+    long millis = since.toEpochMilli();
+    // I timestamp del kubelet sono crescenti, a parte qualche riga dopo un riavvio del container
+    long low = first;
+    long high = next;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      if (timestamps[index(mid)] < millis) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public synchronized long sizeBytes() {
+    return first == next ? 0 : writeOffset - offsets[index(first)];
+  }
+
+  private int index(long sequence) {
+    return (int) (sequence % offsets.length);
+  }
+}
@@ -0,0 +1,88 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
+
+/**
+ * Righe del log da cui si ricavano le metriche dei server. I messaggi sono gli stessi per tutti i
+ * tipi di server, cambia il prefisso: legarli al prefisso del thread del server evita di contare
+ * righe di chat che li imitano, es. {@code <Steve> Alex joined the game}.
+ */
+public record LogPatterns(Pattern tickLag, Pattern startup, Pattern join, Pattern leave) {
+
+  // [12:34:56] [Server thread/INFO]: messaggio
+  private static final String VANILLA = "^\\[[^\\]]+\\] \\[Server thread/(?:INFO|WARN)\\]: ";
+  // [12:34:56 INFO]: messaggio
+  private static final String PAPER = "^\\[[^\\] ]+ (?:INFO|WARN)\\]: ";
+  // Forge "[Server thread/INFO] [minecraft/DedicatedServer]: ",
+  // Fabric "[Server thread/INFO] (Minecraft) "
+  private static final String MODDED =
+      "^\\[[^\\]]+\\] \\[Server thread/(?:INFO|WARN)\\](?: \\[[^\\]]+\\]:| \\([^)]+\\)|:) ";
+  private static final String ANY = "(?:" + VANILLA + "|" + PAPER + "|" + MODDED + ")";
+
+  private static final String TICK_LAG = "Can't keep up! Is the server overloaded\\? "
+      + "Running (?<ms>\\d+)ms or (?<ticks>\\d+) ticks behind";
+  private static final String STARTUP = "Done \\((?<seconds>\\d+(?:[.,]\\d+)?)s\\)!";
+  // I giocatori Bedrock collegati con Geyser hanno un prefisso, di solito "."
+  private static final String JOIN = "(?<player>[.*]?\\w{1,16}) joined the game$";
+  private static final String LEAVE = "(?<player>[.*]?\\w{1,16}) left the game$";
+
+  /**
+   * @param type {@code null} se il tipo non è noto: vengono accettati tutti i prefissi
+   * @param options pattern configurati che sostituiscono quelli predefiniti
+   */
+  public static LogPatterns of(Type type, MinecraftServerOptions.LogMetrics options) {
+    String prefix = type == null ? ANY : switch (type) {
+      case VANILLA -> VANILLA;
+      case PLUGIN -> PAPER;
+      // I modpack possono essere Forge, NeoForge o Fabric
+      case MOD, MODRINTH, CURSEFORGE -> MODDED;
+    };
+    MinecraftServerOptions.LogMetrics.Patterns custom =
+        type != null ? options.getPatterns().get(type) : null;
+    return new LogPatterns( //
+        compile(custom != null ? custom.getTickLag() : null, prefix + TICK_LAG), //
+        compile(custom != null ? custom.getStartup() : null, prefix + STARTUP), //
+        compile(custom != null ? custom.getJoin() : null, prefix + JOIN), //
+        compile(custom != null ? custom.getLeave() : null, prefix + LEAVE));
+  }
+
+  /**
+   * Controlla i pattern configurati all'avvio: una regex non valida, o senza i gruppi letti dal
+   * parser, fallirebbe solo alla prima riga corrispondente, nel thread che segue il log.
+   *
+   * @throws IllegalStateException con la proprietà da correggere
+   */
+  public static void validate(MinecraftServerOptions.LogMetrics options) {
+    options.getPatterns().forEach((type, custom) -> {
+      String property = "minecraft.log-metrics.patterns." + type + ".";
+      check(property + "tick-lag", custom.getTickLag(), "ms", "ticks");
+      check(property + "startup", custom.getStartup(), "seconds");
+      check(property + "join", custom.getJoin());
+      check(property + "leave", custom.getLeave());
+    });
+  }
+
+  private static void check(String property, String regex, String... groups) {
+    if (regex == null) {
+      return;
+    }
+    Pattern pattern;
+    try {
+      pattern = Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      throw new IllegalStateException("Invalid " + property + ": " + e.getDescription(), e);
+    }
+    for (String group : groups) {
+      if (!pattern.namedGroups().containsKey(group)) {
+        throw new IllegalStateException(property + " needs the named group " + group);
+      }
+    }
+  }
+
+  private static Pattern compile(String custom, String fallback) {
+    return Pattern.compile(custom != null ? custom : fallback);
+  }
+}
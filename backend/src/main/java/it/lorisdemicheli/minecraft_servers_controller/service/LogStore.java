@@ -0,0 +1,655 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Archivio su disco dei log dei server, che sopravvive allo stop dei pod e alla rotazione del
+ * kubelet. Ogni server ha una cartella di segmenti in sola aggiunta, chiamati con il millisecondo
+ * della loro prima riga; ogni riga è {@code nanosecondi-epoch testo}. Il segmento attivo viene
+ * chiuso quando supera {@code segmentSize} o {@code segmentDuration} e poi compresso.
+ * <p>
+ * Accanto a ogni segmento c'è un indice {@code .idx} di coppie (timestamp, offset), una ogni
+ * {@code indexInterval} byte di log, letto con un mapping in memoria per trovare con una ricerca
+ * binaria da dove iniziare a leggere. Nei segmenti compressi ogni blocco dell'indice è un membro
+ * gzip separato, quindi la lettura può partire da metà file senza decomprimere il resto.
+ */
+@Service
+public class LogStore {
+
+  private static final Pattern SERVER_NAME = Pattern.compile("[a-z0-9]([-a-z0-9]*[a-z0-9])?");
+  private static final Pattern SEGMENT = Pattern.compile("(\\d{20})\\.log(\\.gz)?");
+  private static final String ACTIVE = ".log";
+  private static final String COMPRESSED = ".log.gz";
+  private static final String INDEX = ".idx";
+  private static final String TEMP = ".tmp";
+
+  private static final Counter LINES = Counter.build() //
+      .name("minecraft_controller_log_store_lines_total") //
+      .help("Log lines written to the controller log store") //
+      .register();
+
+  private static final Counter ERRORS = Counter.build() //
+      .name("minecraft_controller_log_store_errors_total") //
+      .help("Log store writes, compressions or cleanups that failed") //
+      .register();
+
+  private static final Gauge BYTES = Gauge.build() //
+      .name("minecraft_controller_log_store_bytes") //
+      .help("Total size of the segments held by the controller log store") //
+      .register();
+
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private Path root;
+  private final Map<String, SegmentWriter> writers = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("log-store").daemon().factory());
+
+  @PostConstruct
+  void start() throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    root = Path.of(serverOptions.getLogStore().getDirectory());
+    Files.createDirectories(root);
+    maintenance.scheduleWithFixedDelay(this::flush, 5, 5, TimeUnit.SECONDS);
+    maintenance.scheduleWithFixedDelay(this::maintain, 0, 1, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  void stop() {
+    maintenance.shutdownNow();
+    writers.values().forEach(SegmentWriter::close);
+  }
+
+  public boolean isEnabled() {
+    MinecraftServerOptions.LogStore options = serverOptions.getLogStore();
+    return options.isEnabled() && options.getDirectory() != null
+        && !options.getDirectory().isBlank();
+  }
+
+  /**
+   * Aggiunge una riga al log del server. Le righe non successive all'ultima salvata vengono
+   * ignorate, così rileggere il log del pod dopo un riavvio del controller non crea doppioni.
+   */
+  public void append(String serverName, Instant timestamp, String text) {
+    if (!isEnabled() || !SERVER_NAME.matcher(serverName).matches()) {
+      return;
+    }
+    try {
+      writers.computeIfAbsent(serverName, SegmentWriter::new).append(timestamp, text);
+    } catch (IOException e) {
+      ERRORS.inc();
+    }
+  }
+
+  /**
+   * Righe salvate nell'intervallo {@code [from, to)} che contengono {@code pattern}, in ordine.
+   *
+   * @param from se {@code null} dalla riga più vecchia
+   * @param to se {@code null} fino all'ultima riga salvata
+   * @param pattern se {@code null} tutte le righe
+   */
+  public Flux<LogRecord> query(String serverName, Instant from, Instant to, Pattern pattern,
+      int limit) {
+    if (!isEnabled() || !SERVER_NAME.matcher(serverName).matches()) {
+      return Flux.empty();
+    }
+    return Flux.<LogRecord, HistoryReader>generate(() -> {
+      SegmentWriter writer = writers.get(serverName);
+      if (writer != null) {
+        writer.flush();
+      }
+      return new HistoryReader(root.resolve(serverName), from, to, pattern);
+    }, (reader, sink) -> {
+      try {
+        LogRecord record = reader.next();
+        if (record == null) {
+          sink.complete();
+        } else {
+          sink.next(record);
+        }
+      } catch (IOException e) {
+        sink.error(e);
+      }
+      return reader;
+    }, HistoryReader::close) //
+        .take(limit) //
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  private void flush() {
+    writers.values().forEach(SegmentWriter::flush);
+  }
+
+  /**
+   * Comprime i segmenti chiusi rimasti da un riavvio ed elimina quelli oltre {@code maxAge} o
+   * {@code maxSizePerServer}, a partire dai più vecchi. Il segmento attivo non viene mai toccato.
+   */
+  private void maintain() {
+    MinecraftServerOptions.LogStore options = serverOptions.getLogStore();
+    long oldest = Instant.now().minus(options.getMaxAge()).toEpochMilli();
+    long total = 0;
+    try (Stream<Path> dirs = Files.list(root)) {
+      for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+        SegmentWriter writer = writers.get(dir.getFileName().toString());
+        if (writer != null) {
+          writer.closeIfIdle();
+        }
+        TreeMap<Long, Path> segments = segments(dir);
+        for (Path segment : List.copyOf(segments.values())) {
+          // Il segmento attivo va riletto ogni volta: il writer può ruotare nel frattempo
+          if (segment.getFileName().toString().endsWith(ACTIVE) && !isActive(writer, segment)) {
+            compress(segment);
+          }
+        }
+
+        segments = segments(dir);
+        long size = 0;
+        for (Path segment : segments.values()) {
+          size += Files.size(segment) + sizeIfExists(index(segment));
+        }
+        // Un segmento è scaduto quando anche la prima riga del successivo lo è
+        List<Long> starts = new ArrayList<>(segments.keySet());
+        for (int i = 0; i < starts.size(); i++) {
+          Path segment = segments.get(starts.get(i));
+          if (isActive(writer, segment)) {
+            break;
+          }
+          boolean expired = i + 1 < starts.size() && starts.get(i + 1) < oldest;
+          if (!expired && size <= options.getMaxSizePerServer().toBytes()) {
+            break;
+          }
+          size -= Files.size(segment) + sizeIfExists(index(segment));
+          Files.deleteIfExists(index(segment));
+          Files.deleteIfExists(segment);
+        }
+        if (segments.isEmpty() && writer == null) {
+          Files.deleteIfExists(dir);
+        }
+        total += size;
+      }
+    } catch (IOException e) {
+      ERRORS.inc();
+    }
+    BYTES.set(total);
+  }
+
+  private static boolean isActive(SegmentWriter writer, Path segment) {
+    return writer != null && segment.equals(writer.current());
+  }
+
+  /**
+   * Riscrive il segmento come gzip, un membro per blocco dell'indice, con il suo indice degli
+   * offset compressi. I file temporanei vengono rinominati prima di eliminare l'originale, quindi
+   * chi sta leggendo trova sempre un segmento completo.
+   */
+  private void compress(Path segment) {
+    String base = segment.getFileName().toString();
+    base = base.substring(0, base.length() - ACTIVE.length());
+    Path target = segment.resolveSibling(base + COMPRESSED);
+    Path targetTemp = segment.resolveSibling(base + COMPRESSED + TEMP);
+    Path targetIndex = index(target);
+    Path targetIndexTemp = segment.resolveSibling(base + COMPRESSED + INDEX + TEMP);
+    try {
+      long[] entries = readIndex(index(segment));
+      if (entries.length == 0) {
+        Files.deleteIfExists(index(segment));
+        Files.deleteIfExists(segment);
+        return;
+      }
+      long segmentSize = Files.size(segment);
+      try (InputStream in = Files.newInputStream(segment);
+          CountingOutputStream out = new CountingOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(targetTemp)));
+          DataOutputStream index = new DataOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(targetIndexTemp)))) {
+        for (int i = 0; i < entries.length; i += 2) {
+          long end = i + 2 < entries.length ? entries[i + 3] : segmentSize;
+          index.writeLong(entries[i]);
+          index.writeLong(out.count);
+          try (GZIPOutputStream gzip = new GZIPOutputStream(unclosable(out), 64 * 1024)) {
+            new LimitedInputStream(in, end - entries[i + 1]).transferTo(gzip);
+          }
+        }
+      }
+      Files.move(targetIndexTemp, targetIndex, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(targetTemp, target, StandardCopyOption.ATOMIC_MOVE);
+      Files.deleteIfExists(segment);
+      Files.deleteIfExists(index(segment));
+    } catch (IOException e) {
+      ERRORS.inc();
+      try {
+        Files.deleteIfExists(targetTemp);
+        Files.deleteIfExists(targetIndexTemp);
+      } catch (IOException ignored) {
+        // verranno sovrascritti al prossimo tentativo
+      }
+    }
+  }
+
+  // Segmenti per millisecondo iniziale; di un segmento in compressione si prende la versione gzip
+  private static TreeMap<Long, Path> segments(Path dir) throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<>();
+    if (!Files.isDirectory(dir)) {
+      return segments;
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      files.sorted(Comparator.comparing(Path::toString)).forEach(file -> {
+        Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          segments.merge(Long.parseLong(matcher.group(1)), file,
+              (a, b) -> a.toString().endsWith(COMPRESSED) ? a : b);
+        }
+      });
+    }
+    return segments;
+  }
+
+  private static Path index(Path segment) {
+    return segment.resolveSibling(segment.getFileName() + INDEX);
+  }
+
+  /**
+   * @return timestamp e offset alternati; con un indice ancora in scrittura l'ultima voce
+   *         incompleta viene ignorata
+   */
+  private static long[] readIndex(Path index) throws IOException {
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+      long size = channel.size() - channel.size() % 16;
+      LongBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asLongBuffer();
+      long[] result = new long[entries.remaining()];
+      entries.get(result);
+      return result;
+    } catch (NoSuchFileException e) {
+      return new long[0];
+    }
+  }
+
+  /**
+   * @return l'offset da cui leggere per trovare le righe da {@code from}
+   */
+  private static long startOffset(Path index, long from) throws IOException {
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+      long size = channel.size() - channel.size() % 16;
+      LongBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asLongBuffer();
+      // Ultima voce con timestamp minore di from
+      int low = 0;
+      int high = entries.limit() / 2;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (entries.get(mid * 2) < from) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low == 0 ? 0 : entries.get((low - 1) * 2 + 1);
+    }
+  }
+
+  private static long sizeIfExists(Path file) throws IOException {
+    return Files.exists(file) ? Files.size(file) : 0;
+  }
+
+  private static long nanos(Instant instant) {
+    return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+  }
+
+  private class SegmentWriter {
+    private final Path dir;
+    // Protetti da "this"
+    private Path current;
+    private OutputStream out;
+    private DataOutputStream index;
+    private long size;
+    private long indexed;
+    private long openedAt;
+    private long last;
+
+    SegmentWriter(String serverName) {
+      this.dir = root.resolve(serverName);
+      try {
+        Files.createDirectories(dir);
+        this.last = lastTimestamp(dir);
+      } catch (IOException e) {
+        ERRORS.inc();
+        this.last = Long.MIN_VALUE;
+      }
+    }
+
+    synchronized Path current() {
+      return current;
+    }
+
+    synchronized void append(Instant timestamp, String text) throws IOException {
+      long nanos = nanos(timestamp);
+      if (nanos <= last) {
+        return;
+      }
+      MinecraftServerOptions.LogStore options = serverOptions.getLogStore();
+      if (current == null || size >= options.getSegmentSize().toBytes()
+          || System.nanoTime() - openedAt > options.getSegmentDuration().toNanos()) {
+        rotate(timestamp);
+      }
+      if (size == 0 || size - indexed >= options.getIndexInterval().toBytes()) {
+        // Il log va scritto prima dell'indice che lo punta
+        out.flush();
+        index.writeLong(nanos);
+        index.writeLong(size);
+        index.flush();
+        indexed = size;
+      }
+      byte[] line = (nanos + " " + text + "\n").getBytes(StandardCharsets.UTF_8);
+      out.write(line);
+      size += line.length;
+      last = nanos;
+      LINES.inc();
+    }
+
+    synchronized void flush() {
+      try {
+        if (out != null) {
+          out.flush();
+          index.flush();
+        }
+      } catch (IOException e) {
+        ERRORS.inc();
+      }
+    }
+
+    // Un server fermo non scrive più: il suo segmento viene chiuso e compresso dopo segmentDuration
+    void closeIfIdle() {
+      Path previous;
+      synchronized (this) {
+        previous = current;
+        if (previous == null || System.nanoTime() - openedAt <= serverOptions.getLogStore()
+            .getSegmentDuration().toNanos()) {
+          return;
+        }
+        close();
+      }
+      // Come in rotate la compressione avviene fuori dal lock, senza bloccare append
+      compress(previous);
+    }
+
+    synchronized void close() {
+      try {
+        if (out != null) {
+          out.close();
+          index.close();
+        }
+      } catch (IOException e) {
+        ERRORS.inc();
+      }
+      out = null;
+      index = null;
+      current = null;
+    }
+
+    private void rotate(Instant timestamp) throws IOException {
+      Path previous = current;
+      close();
+      Files.createDirectories(dir);
+      long start = timestamp.toEpochMilli();
+      Path next;
+      do {
+        next = dir.resolve(String.format("%020d", start++) + ACTIVE);
+      } while (Files.exists(next) || Files.exists(dir.resolve(next.getFileName() + ".gz")));
+      out = new BufferedOutputStream(Files.newOutputStream(next, StandardOpenOption.CREATE_NEW));
+      index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index(next))));
+      current = next;
+      size = 0;
+      indexed = 0;
+      openedAt = System.nanoTime();
+      if (previous != null) {
+        maintenance.execute(() -> compress(previous));
+      }
+    }
+  }
+
+  // Timestamp dell'ultima riga salvata, letta dall'ultimo blocco dell'ultimo segmento
+  private static long lastTimestamp(Path dir) throws IOException {
+    TreeMap<Long, Path> segments = segments(dir);
+    while (!segments.isEmpty()) {
+      Path segment = segments.pollLastEntry().getValue();
+      long[] entries = readIndex(index(segment));
+      if (entries.length == 0) {
+        continue;
+      }
+      long last = entries[entries.length - 2];
+      try (BufferedReader reader = open(segment, entries[entries.length - 1], Long.MAX_VALUE)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          int space = line.indexOf(' ');
+          if (space > 0) {
+            last = Math.max(last, Long.parseLong(line, 0, space, 10));
+          }
+        }
+      } catch (NumberFormatException e) {
+        // riga troncata da un arresto improvviso
+      }
+      return last;
+    }
+    return Long.MIN_VALUE;
+  }
+
+  /**
+   * Apre il segmento dalla posizione indicata dall'indice, decomprimendolo se serve.
+   *
+   * @param limit byte da leggere al massimo, per non vedere una riga ancora in scrittura
+   */
+  private static BufferedReader open(Path segment, long offset, long limit) throws IOException {
+    FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ);
+    channel.position(offset);
+    InputStream in = Channels.newInputStream(channel);
+    if (segment.getFileName().toString().endsWith(COMPRESSED)) {
+      in = new GZIPInputStream(in, 64 * 1024);
+    } else if (limit < Long.MAX_VALUE) {
+      in = new LimitedInputStream(in, limit - offset);
+    }
+    return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+  }
+
+  /**
+   * Legge le righe di un intervallo scorrendo i segmenti in ordine.
+   */
+  private static class HistoryReader {
+    private final long from;
+    private final long to;
+    private final Pattern pattern;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private BufferedReader reader;
+
+    HistoryReader(Path dir, Instant from, Instant to, Pattern pattern) throws IOException {
+      this.from = from != null ? nanos(from) : Long.MIN_VALUE;
+      this.to = to != null ? nanos(to) : Long.MAX_VALUE;
+      this.pattern = pattern;
+      TreeMap<Long, Path> all = segments(dir);
+      // Segmenti che possono contenere righe dell'intervallo: l'ultimo che inizia prima di from
+      // e tutti quelli che iniziano prima di to
+      Long first = from != null ? all.floorKey(from.toEpochMilli()) : null;
+      all.tailMap(first != null ? first : Long.MIN_VALUE, true).forEach((start, segment) -> {
+        if (to == null || start < to.toEpochMilli() + 1) {
+          segments.add(segment);
+        }
+      });
+    }
+
+    LogRecord next() throws IOException {
+      while (true) {
+        if (reader == null && !openNext()) {
+          return null;
+        }
+        String line = reader.readLine();
+        if (line == null) {
+          reader.close();
+          reader = null;
+          continue;
+        }
+        int space = line.indexOf(' ');
+        long nanos;
+        try {
+          nanos = Long.parseLong(line, 0, space, 10);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+          continue;
+        }
+        if (nanos < from) {
+          continue;
+        }
+        if (nanos >= to) {
+          segments.clear();
+          reader.close();
+          reader = null;
+          return null;
+        }
+        String text = line.substring(space + 1);
+        if (pattern == null || pattern.matcher(text).find()) {
+          return new LogRecord(Instant.ofEpochSecond(0, nanos), text);
+        }
+      }
+    }
+
+    private boolean openNext() throws IOException {
+      while (!segments.isEmpty()) {
+        Path segment = segments.poll();
+        try {
+          long limit = segment.getFileName().toString().endsWith(ACTIVE) ? Files.size(segment)
+              : Long.MAX_VALUE;
+          reader = open(segment, startOffset(index(segment), from), limit);
+          return true;
+        } catch (NoSuchFileException e) {
+          // Compresso nel frattempo: si legge la versione gzip, se non è già stato eliminato
+          String name = segment.getFileName().toString();
+          if (name.endsWith(ACTIVE)) {
+            segments.addFirst(segment.resolveSibling(name + ".gz"));
+          }
+        }
+      }
+      return false;
+    }
+
+    void close() {
+      try {
+        if (reader != null) {
+          reader.close();
+        }
+      } catch (IOException e) {
+        // già chiuso
+      }
+    }
+  }
+
+  // Ogni blocco è un membro gzip chiuso a sé, ma il file continua con il blocco successivo
+  private static OutputStream unclosable(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long remaining) {
+      super(in);
+      this.remaining = remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+  }
+}
@@ -0,0 +1,320 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import io.kubernetes.client.Exec;
+import io.kubernetes.client.openapi.ApiException;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Sessioni {@code sh} persistenti per pod, così le operazioni sul file system non aprono un exec
+ * per ogni comando. Le richieste viaggiano tutte sullo stdin della shell: stdout e stderr di ogni
+ * comando finiscono in file temporanei e tornano preceduti da un'intestazione
+ * {@code @@ id exit-code lunghezza-stdout lunghezza-stderr}. Le sessioni inattive vengono chiuse,
+ * quelle ferme da più di {@code healthCheckInterval} controllate con un comando vuoto.
+ */
+@Component
+public class PodShellSessionManager {
+
+  private static final String HEADER = "@@";
+  private static final String INIT = "o=$(mktemp) e=$(mktemp); "
+      + "trap 'rm -f \"$o\" \"$e\"' EXIT; trap 'exit 1' HUP TERM\n";
+
+  @Autowired
+  private Exec exec;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private final Map<String, PodSessions> pods = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(
+      Thread.ofPlatform().name("shell-sessions").daemon().factory());
+
+  @PostConstruct
+  void start() {
+    long interval = serverOptions.getShellSession().getHealthCheckInterval().toMillis();
+    maintenance.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  void stop() {
+    maintenance.shutdownNow();
+    pods.values().forEach(PodSessions::closeAll);
+    pods.clear();
+  }
+
+  public boolean isEnabled() {
+    return serverOptions.getShellSession().isEnabled();
+  }
+
+  /**
+   * Esegue il comando in una sessione del pod; gli argomenti vengono quotati per {@code sh}. Il
+   * comando gira sotto {@code timeout}, così allo scadere viene terminato nel pod e fallisce solo
+   * questa richiesta, non quelle accodate sulla stessa sessione.
+   */
+  public Result execute(String ns, String pod, String container, String[] command)
+      throws IOException, InterruptedException, ApiException {
+    long timeout = serverOptions.getShellSession().getCommandTimeout().toMillis();
+    String line = "timeout " + Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout)) + " "
+        + Arrays.stream(command).map(Shell::quote).collect(Collectors.joining(" "));
+    ShellSession session = null;
+    while (session == null) {
+      // null se la manutenzione ha appena tolto il pod rimasto senza sessioni: se ne crea un altro
+      session = pods //
+          .computeIfAbsent(ns + "/" + pod, k -> new PodSessions(ns, pod, container)) //
+          .acquire();
+    }
+    // Ogni comando accodato prima di questo può durare fino al timeout; oltre, più un margine, è
+    // la shell stessa a non rispondere più
+    long wait = (session.inFlight() + 1) * timeout + 5_000;
+    Result result;
+    try {
+      result = session.submit(line).get(wait, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      session.close();
+      throw new IOException("K8s Command Timeout");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+    }
+    if (result.exitCode() == 124) {
+      throw new IOException("K8s Command Timeout");
+    }
+    return result;
+  }
+
+  private void maintain() {
+    // I pod cancellati o senza sessioni aperte non restano nella mappa
+    pods.values().removeIf(PodSessions::maintain);
+  }
+
+  public record Result(int exitCode, byte[] stdout, byte[] stderr) {
+  }
+
+  private class PodSessions {
+    private final String ns;
+    private final String pod;
+    private final String container;
+    private final List<ShellSession> sessions = new ArrayList<>();
+    private boolean retired = false;
+
+    PodSessions(String ns, String pod, String container) {
+      this.ns = ns;
+      this.pod = pod;
+      this.container = container;
+    }
+
+    // @return null se il pod è già stato tolto dalla mappa
+    synchronized ShellSession acquire() throws IOException, ApiException {
+      if (retired) {
+        return null;
+      }
+      // Le sessioni di un pod riavviato si chiudono da sole con la fine dello stream
+      sessions.removeIf(session -> !session.isOpen());
+
+      ShellSession best = sessions.stream() //
+          .min(Comparator.comparingInt(ShellSession::inFlight)) //
+          .orElse(null);
+      if (best != null && (best.inFlight() == 0
+          || sessions.size() >= serverOptions.getShellSession().getMaxSessionsPerPod())) {
+        return best;
+      }
+
+      Process proc = exec.exec(ns, pod, new String[] {"sh"}, container, true, false);
+      ShellSession session = new ShellSession(proc, pod);
+      sessions.add(session);
+      return session;
+    }
+
+    // @return true se non ci sono più sessioni e il pod va tolto dalla mappa
+    synchronized boolean maintain() {
+      long idleTimeout = serverOptions.getShellSession().getIdleTimeout().toNanos();
+      long healthCheck = serverOptions.getShellSession().getHealthCheckInterval().toNanos();
+      long commandTimeout = serverOptions.getShellSession().getCommandTimeout().toMillis();
+
+      for (ShellSession session : sessions) {
+        if (session.inFlight() > 0) {
+          continue;
+        }
+        if (session.idleNanos() > idleTimeout) {
+          session.close();
+        } else if (session.idleNanos() > healthCheck) {
+          session.ping() //
+              .orTimeout(commandTimeout, TimeUnit.MILLISECONDS) //
+              .whenComplete((result, error) -> {
+                if (error != null) {
+                  session.close();
+                }
+              });
+        }
+      }
+      sessions.removeIf(session -> !session.isOpen());
+      retired = sessions.isEmpty();
+      return retired;
+    }
+
+    synchronized void closeAll() {
+      sessions.forEach(ShellSession::close);
+      sessions.clear();
+    }
+  }
+
+  static class ShellSession implements Closeable {
+    private final Process process;
+    private final OutputStream stdin;
+    private final InputStream stdout;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<Result>> pending = new ConcurrentHashMap<>();
+    private volatile long lastUsed = System.nanoTime();
+    private volatile boolean closed = false;
+
+    ShellSession(Process process, String name) throws IOException {
+      this.process = process;
+      this.stdin = process.getOutputStream();
+      this.stdout = new BufferedInputStream(process.getInputStream());
+      try {
+        stdin.write(INIT.getBytes(StandardCharsets.UTF_8));
+        stdin.flush();
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+      Thread.ofVirtual().name("shell-" + name).start(this::readLoop);
+      // Sullo stderr della shell arrivano solo i suoi errori, va svuotato per non bloccarla
+      Thread.ofVirtual().name("shell-err-" + name).start(() -> {
+        try (InputStream err = process.getErrorStream()) {
+          err.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+          // sessione chiusa
+        }
+      });
+    }
+
+    CompletableFuture<Result> submit(String command) {
+      lastUsed = System.nanoTime();
+      return send(command);
+    }
+
+    CompletableFuture<Result> ping() {
+      return send("true");
+    }
+
+    boolean isOpen() {
+      return !closed;
+    }
+
+    int inFlight() {
+      return pending.size();
+    }
+
+    long idleNanos() {
+      return System.nanoTime() - lastUsed;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      try {
+        stdin.close();
+      } catch (IOException e) {
+        // già chiuso
+      }
+      process.destroy();
+      IOException cause = new IOException("Shell session closed");
+      pending.values().forEach(f -> f.completeExceptionally(cause));
+      pending.clear();
+    }
+
+    private CompletableFuture<Result> send(String command) {
+      long id = ids.incrementAndGet();
+      CompletableFuture<Result> result = new CompletableFuture<>();
+      pending.put(id, result);
+      if (closed) {
+        pending.remove(id);
+        return CompletableFuture.failedFuture(new IOException("Shell session closed"));
+      }
+
+      // Subshell per non alterare la sessione (cd, exit, variabili); lo stdin è /dev/null,
+      // altrimenti il comando leggerebbe le richieste successive
+      String request = "( " + command + "\n) </dev/null >\"$o\" 2>\"$e\"; r=$?; " //
+          + "printf '" + HEADER + " %d %d %d %d\\n' " + id //
+          + " $r $(($(wc -c <\"$o\"))) $(($(wc -c <\"$e\"))); cat \"$o\" \"$e\"\n";
+      try {
+        synchronized (stdin) {
+          stdin.write(request.getBytes(StandardCharsets.UTF_8));
+          stdin.flush();
+        }
+      } catch (IOException e) {
+        close();
+      }
+      return result;
+    }
+
+    private void readLoop() {
+      try {
+        while (!closed) {
+          String header = readLine();
+          if (!header.startsWith(HEADER + " ")) {
+            continue;
+          }
+          String[] p = header.split(" ");
+          long id = Long.parseLong(p[1]);
+          int exitCode = Integer.parseInt(p[2]);
+          byte[] out = readFully(Integer.parseInt(p[3]));
+          byte[] err = readFully(Integer.parseInt(p[4]));
+
+          CompletableFuture<Result> result = pending.remove(id);
+          if (result != null) {
+            result.complete(new Result(exitCode, out, err));
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // stream interrotto o risposta non valida: la sessione non è più utilizzabile
+      } finally {
+        close();
+      }
+    }
+
+    private String readLine() throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = stdout.read()) != '\n') {
+        if (b < 0) {
+          throw new EOFException();
+        }
+        line.write(b);
+      }
+      return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private byte[] readFully(int length) throws IOException {
+      byte[] bytes = stdout.readNBytes(length);
+      if (bytes.length < length) {
+        throw new EOFException();
+      }
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1StatefulSet;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerState;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerStateEvent;
+import it.lorisdemicheli.minecraft_servers_controller.exception.ConfigurationException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Deriva le transizioni di {@link ServerState} dagli eventi di watch su StatefulSet e Pod. Gli
+ * eventi ravvicinati dello stesso server vengono accorpati e lo stato emesso è sempre quello
+ * corrente della cache, quindi i flap più brevi della finestra non arrivano ai client.
+ */
+@Service
+public class ServerEventService {
+
+  @Autowired
+  private KubernetesResourceCache resourceCache;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private final Scheduler scheduler = Schedulers.newSingle("server-events");
+
+  private final Map<String, Disposable> pending = new ConcurrentHashMap<>();
+  private final Map<String, String> pendingCursor = new ConcurrentHashMap<>();
+
+  // Protetti da "this"
+  private final Map<String, Sequenced> lastEvents = new ConcurrentHashMap<>();
+  private final Deque<Sequenced> history = new ArrayDeque<>();
+  private long sequence = 0;
+
+  private Sinks.Many<Sequenced> sink;
+
+  @PostConstruct
+  void start() {
+    sink = Sinks.many().replay().limit(serverOptions.getEvents().getHistorySize());
+
+    resourceCache.addStatefulSetHandler(
+        trigger(sts -> sts.getMetadata().getName()));
+    resourceCache.addPodHandler(
+        trigger(pod -> labelOf(pod, KubernetesServerInstanceService.LABEL_SERVER_NAME)));
+  }
+
+  @PreDestroy
+  void stop() {
+    scheduler.dispose();
+  }
+
+  /**
+   * Stream delle transizioni di stato.
+   *
+   * @param serverNames server da seguire, tutti se vuoto o {@code null}
+   * @param cursor id dell'ultimo evento ricevuto dal client: se è ancora nello storico vengono
+   *        rinviati solo gli eventi successivi, altrimenti si parte dallo stato corrente di ogni
+   *        server
+   * @throws ConfigurationException se la cache è disabilitata: senza informer non ci sono eventi
+   */
+  public Flux<ServerStateEvent> events(Collection<String> serverNames, String cursor) {
+    if (!serverOptions.getCache().isEnabled()) {
+      throw new ConfigurationException("Server events require minecraft.cache.enabled=true");
+    }
+    return Flux.defer(() -> {
+      Flux<Sequenced> stream;
+      synchronized (this) {
+        Sequenced from = cursor == null ? null
+            : history.stream().filter(e -> cursor.equals(e.event().id())).reduce((a, b) -> b)
+                .orElse(null);
+        if (from != null) {
+          long fromSeq = from.seq();
+          stream = sink.asFlux().filter(e -> e.seq() > fromSeq);
+        } else {
+          long snapshotSeq = sequence;
+          List<Sequenced> snapshot = new ArrayList<>(lastEvents.values());
+          stream = Flux.concat( //
+              Flux.fromIterable(snapshot), //
+              sink.asFlux().filter(e -> e.seq() > snapshotSeq));
+        }
+      }
+      return stream //
+          .map(Sequenced::event) //
+          .filter(e -> serverNames == null || serverNames.isEmpty()
+              || serverNames.contains(e.serverName()));
+    });
+  }
+
+  private <T extends KubernetesObject> ResourceEventHandler<T> trigger(
+      Function<T, String> serverName) {
+    return new ResourceEventHandler<T>() {
+      @Override
+      public void onAdd(T obj) {
+        schedule(serverName.apply(obj), obj.getMetadata().getResourceVersion());
+      }
+
+      @Override
+      public void onUpdate(T oldObj, T newObj) {
+        schedule(serverName.apply(newObj), newObj.getMetadata().getResourceVersion());
+      }
+
+      @Override
+      public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+        schedule(serverName.apply(obj), obj.getMetadata().getResourceVersion());
+      }
+    };
+  }
+
+  private void schedule(String serverName, String resourceVersion) {
+    if (serverName == null) {
+      return;
+    }
+    pendingCursor.put(serverName, resourceVersion);
+    scheduleEvaluation(serverName);
+  }
+
+  private void scheduleEvaluation(String serverName) {
+    pending.computeIfAbsent(serverName,
+        k -> scheduler.schedule(() -> evaluate(serverName),
+            serverOptions.getEvents().getCoalesceWindow().toMillis(), TimeUnit.MILLISECONDS));
+  }
+
+  private void evaluate(String serverName) {
+    String cursor = pendingCursor.remove(serverName);
+    pending.remove(serverName);
+    // Un evento arrivato tra le due rimozioni ha trovato la valutazione ancora programmata
+    if (pendingCursor.containsKey(serverName)) {
+      scheduleEvaluation(serverName);
+    }
+    if (cursor == null) {
+      return;
+    }
+
+    V1StatefulSet sts = resourceCache.getStatefulSet(serverName);
+    Sequenced last = lastEvents.get(serverName);
+    if (sts == null && last == null) {
+      return;
+    }
+    ServerState previous = last == null ? null : last.event().state();
+
+    // StatefulSet eliminato: ultimo evento STOPPED e il server esce dallo snapshot
+    ServerState current = sts == null ? ServerState.STOPPED
+        : KubernetesServerInstanceService.resolveState(sts,
+            resourceCache.getPod(KubernetesServerInstanceService.getPodName(serverName)));
+
+    if (current != previous) {
+      publish(new ServerStateEvent(cursor, serverName, current, previous, Instant.now()));
+    }
+    if (sts == null) {
+      lastEvents.remove(serverName);
+    }
+  }
+
+  private synchronized void publish(ServerStateEvent event) {
+    Sequenced sequenced = new Sequenced(++sequence, event);
+    lastEvents.put(event.serverName(), sequenced);
+    history.addLast(sequenced);
+    while (history.size() > serverOptions.getEvents().getHistorySize()) {
+      history.removeFirst();
+    }
+    sink.tryEmitNext(sequenced);
+  }
+
+  private static String labelOf(KubernetesObject obj, String label) {
+    Map<String, String> labels = obj.getMetadata().getLabels();
+    return labels == null ? null : labels.get(label);
+  }
+
+  private record Sequenced(long seq, ServerStateEvent event) {
+  }
+}
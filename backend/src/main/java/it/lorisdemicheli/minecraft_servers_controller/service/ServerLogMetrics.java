@@ -0,0 +1,176 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.openapi.models.V1StatefulSet;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo;
+import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Metriche dei server ricavate dal loro log: ritardi dei tick ("Can't keep up!"), durata
+ * dell'avvio ("Done (12.345s)!"), ingressi e uscite dei giocatori. Le righe arrivano da
+ * {@link ServerLogService} mentre segue il log, senza altri stream verso il kubelet; i pattern
+ * dipendono dal {@link Type} del server, vedi {@link LogPatterns}.
+ */
+@Service
+public class ServerLogMetrics {
+
+  private static final Counter TICK_LAG_EVENTS = Counter.build() //
+      .name("minecraft_controller_server_tick_lag_events_total") //
+      .help("\"Can't keep up!\" lines logged by the server") //
+      .labelNames("server") //
+      .register();
+
+  private static final Counter SKIPPED_TICKS = Counter.build() //
+      .name("minecraft_controller_server_skipped_ticks_total") //
+      .help("Ticks the server reported as skipped in \"Can't keep up!\" lines") //
+      .labelNames("server") //
+      .register();
+
+  private static final Counter TICK_LAG_SECONDS = Counter.build() //
+      .name("minecraft_controller_server_tick_lag_seconds_total") //
+      .help("Time the server reported being behind in \"Can't keep up!\" lines") //
+      .labelNames("server") //
+      .register();
+
+  private static final Gauge STARTUP_SECONDS = Gauge.build() //
+      .name("minecraft_controller_server_startup_seconds") //
+      .help("Startup time of the last server start, from the \"Done\" line") //
+      .labelNames("server") //
+      .register();
+
+  private static final Counter PLAYER_EVENTS = Counter.build() //
+      .name("minecraft_controller_server_player_events_total") //
+      .help("Players joining or leaving the server") //
+      .labelNames("server", "event") //
+      .register();
+
+  @Autowired
+  private KubernetesResourceCache resourceCache;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  private final Map<String, ServerInfo.LogStats> stats = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  void validatePatterns() {
+    LogPatterns.validate(serverOptions.getLogMetrics());
+  }
+
+  /**
+   * Parser delle righe del server, con i pattern del suo tipo attuale.
+   */
+  public Parser parser(String serverName) {
+    V1StatefulSet sts = resourceCache.getStatefulSet(serverName);
+    Map<String, String> labels = sts != null ? sts.getMetadata().getLabels() : null;
+    Type type = null;
+    try {
+      type = labels != null
+          ? Type.valueOf(labels.get(KubernetesServerInstanceService.LABEL_SERVER_TYPE))
+          : null;
+    } catch (IllegalArgumentException | NullPointerException e) {
+      // tipo sconosciuto: si accettano tutti i formati
+    }
+    return new Parser(serverName, LogPatterns.of(type, serverOptions.getLogMetrics()));
+  }
+
+  /**
+   * @return copia dei dati del server, {@code null} se il controller non ne ha ancora letto il log
+   */
+  public ServerInfo.LogStats getStats(String serverName) {
+    ServerInfo.LogStats current = stats.get(serverName);
+    if (current == null) {
+      return null;
+    }
+    synchronized (current) {
+      ServerInfo.LogStats copy = new ServerInfo.LogStats();
+      copy.setTickLagEvents(current.getTickLagEvents());
+      copy.setSkippedTicks(current.getSkippedTicks());
+      copy.setLastTickLagMillis(current.getLastTickLagMillis());
+      copy.setLastTickLagAt(current.getLastTickLagAt());
+      copy.setStartupSeconds(current.getStartupSeconds());
+      copy.setStartedAt(current.getStartedAt());
+      copy.setPlayerJoins(current.getPlayerJoins());
+      copy.setPlayerLeaves(current.getPlayerLeaves());
+      return copy;
+    }
+  }
+
+  public void remove(String serverName) {
+    stats.remove(serverName);
+    TICK_LAG_EVENTS.remove(serverName);
+    SKIPPED_TICKS.remove(serverName);
+    TICK_LAG_SECONDS.remove(serverName);
+    STARTUP_SECONDS.remove(serverName);
+    PLAYER_EVENTS.remove(serverName, "join");
+    PLAYER_EVENTS.remove(serverName, "leave");
+  }
+
+  public class Parser {
+    private final String serverName;
+    private final LogPatterns patterns;
+
+    Parser(String serverName, LogPatterns patterns) {
+      this.serverName = serverName;
+      this.patterns = patterns;
+    }
+
+    public void accept(Instant timestamp, String line) {
+      if (!serverOptions.getLogMetrics().isEnabled()) {
+        return;
+      }
+      try {
+        parse(timestamp, line);
+      } catch (NumberFormatException e) {
+        // Un gruppo configurato che cattura anche altro: la riga non conta, il log prosegue
+      }
+    }
+
+    private void parse(Instant timestamp, String line) {
+      Matcher matcher;
+      if ((matcher = patterns.tickLag().matcher(line)).find()) {
+        long millis = Long.parseLong(matcher.group("ms"));
+        long ticks = Long.parseLong(matcher.group("ticks"));
+        TICK_LAG_EVENTS.labels(serverName).inc();
+        SKIPPED_TICKS.labels(serverName).inc(ticks);
+        TICK_LAG_SECONDS.labels(serverName).inc(millis / 1000.0);
+        update(logStats -> {
+          logStats.setTickLagEvents(logStats.getTickLagEvents() + 1);
+          logStats.setSkippedTicks(logStats.getSkippedTicks() + ticks);
+          logStats.setLastTickLagMillis(millis);
+          logStats.setLastTickLagAt(timestamp);
+        });
+      } else if ((matcher = patterns.startup().matcher(line)).find()) {
+        double seconds = Double.parseDouble(matcher.group("seconds").replace(',', '.'));
+        STARTUP_SECONDS.labels(serverName).set(seconds);
+        update(logStats -> {
+          logStats.setStartupSeconds(seconds);
+          logStats.setStartedAt(timestamp);
+        });
+      } else if (patterns.join().matcher(line).find()) {
+        PLAYER_EVENTS.labels(serverName, "join").inc();
+        update(logStats -> logStats.setPlayerJoins(logStats.getPlayerJoins() + 1));
+      } else if (patterns.leave().matcher(line).find()) {
+        PLAYER_EVENTS.labels(serverName, "leave").inc();
+        update(logStats -> logStats.setPlayerLeaves(logStats.getPlayerLeaves() + 1));
+      }
+    }
+
+    private void update(Consumer<ServerInfo.LogStats> change) {
+      ServerInfo.LogStats current =
+          stats.computeIfAbsent(serverName, k -> new ServerInfo.LogStats());
+      synchronized (current) {
+        change.accept(current);
+      }
+    }
+  }
+}
@@ -0,0 +1,397 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import io.kubernetes.client.PodLogs;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions.Logs.SlowConsumerPolicy;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogLevel;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogLine;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerLogLine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Log dei server, letti dal kubelet una sola volta e tenuti in un {@link LogBuffer} per server.
+ * Il log viene seguito finché il pod è in esecuzione, anche senza nessuno collegato, così chi si
+ * collega riceve subito lo storico richiesto e poi le nuove righe, senza rileggere il log dal
+ * kubelet. Dopo lo stop del server il buffer resta consultabile fino alla sua cancellazione; le
+ * righe vengono anche salvate nel {@link LogStore} per le ricerche nello storico.
+ */
+@Service
+public class ServerLogService {
+
+  private static final Counter DROPPED_LINES = Counter.build() //
+      .name("minecraft_controller_log_dropped_lines_total") //
+      .help("Log lines skipped for clients that could not keep up with the server log") //
+      .labelNames("server") //
+      .register();
+
+  private static final Counter LAGGING_SUBSCRIBERS = Counter.build() //
+      .name("minecraft_controller_log_lagging_subscribers_total") //
+      .help("Times a log client fell behind by more than max-subscriber-lag lines") //
+      .labelNames("policy") //
+      .register();
+
+  private static final Gauge ACTIVE_STREAMS = Gauge.build() //
+      .name("minecraft_controller_log_streams_active") //
+      .help("Server logs currently followed from the kubelet") //
+      .register();
+
+  private static final Gauge SUBSCRIBERS = Gauge.build() //
+      .name("minecraft_controller_log_subscribers") //
+      .help("Clients currently reading a server log") //
+      .register();
+
+  @Autowired
+  private PodLogs podLogs;
+  @Autowired
+  private KubernetesResourceCache resourceCache;
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+  @Autowired
+  private LogStore logStore;
+  @Autowired
+  private ServerLogMetrics logMetrics;
+
+  private final Map<String, LogTail> activeStreams = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  void start() {
+    resourceCache.addPodHandler(new ResourceEventHandler<V1Pod>() {
+      @Override
+      public void onAdd(V1Pod pod) {
+        follow(pod);
+      }
+
+      @Override
+      public void onUpdate(V1Pod oldPod, V1Pod newPod) {
+        follow(newPod);
+      }
+
+      @Override
+      public void onDelete(V1Pod pod, boolean deletedFinalStateUnknown) {
+        LogTail tail = activeStreams.get(serverName(pod));
+        if (tail != null) {
+          tail.stopFollowing();
+        }
+      }
+    });
+  }
+
+  @PreDestroy
+  void stop() {
+    activeStreams.values().forEach(LogTail::close);
+  }
+
+  /**
+   * Storico dal buffer seguito dalle nuove righe. Senza {@code tail} né {@code since} vengono
+   * ripetute le ultime {@code defaultTail} righe; con entrambi vale il primo limite raggiunto.
+   */
+  public Flux<LogLine> logs(String serverName, Integer tail, Instant since) {
+    LogTail logTail = activeStreams.computeIfAbsent(serverName, LogTail::new);
+    logTail.follow();
+    return logTail.stream(tail, since);
+  }
+
+  /**
+   * Log di più server uniti in un solo stream, ognuno filtrato per livello. Ogni server usa il suo
+   * lettore condiviso, quindi aggiungere client non apre altri stream verso il kubelet.
+   *
+   * @param minLevels livello minimo per server
+   */
+  public Flux<ServerLogLine> logs(Map<String, LogLevel> minLevels, Integer tail, Instant since) {
+    return Flux.merge(minLevels.entrySet().stream() //
+        .map(server -> Flux.defer(() -> {
+          // Le righe senza livello, come gli stack trace, seguono la riga che le precede
+          LevelTracker tracker = new LevelTracker();
+          return logs(server.getKey(), tail, since) //
+              .map(line -> new ServerLogLine(server.getKey(), line.timestamp(),
+                  tracker.level(line.text()), line.text())) //
+              .filter(line -> line.level().compareTo(server.getValue()) >= 0);
+        })) //
+        .toList());
+  }
+
+  /**
+   * Smette di seguire il log e libera il buffer, chiudendo gli stream aperti.
+   */
+  public void remove(String serverName) {
+    LogTail tail = activeStreams.remove(serverName);
+    if (tail != null) {
+      tail.close();
+    }
+    logMetrics.remove(serverName);
+  }
+
+  private void follow(V1Pod pod) {
+    String serverName = serverName(pod);
+    boolean running = pod.getStatus() != null && "Running".equals(pod.getStatus().getPhase())
+        && pod.getMetadata().getDeletionTimestamp() == null;
+    if (serverName != null && running) {
+      activeStreams.computeIfAbsent(serverName, LogTail::new).follow();
+    }
+  }
+
+  private static String serverName(V1Pod pod) {
+    Map<String, String> labels = pod.getMetadata().getLabels();
+    return labels != null ? labels.get(KubernetesServerInstanceService.LABEL_SERVER_NAME) : null;
+  }
+
+  private class LogTail {
+    private final String serverName;
+    private final LogBuffer buffer;
+    private final Set<Reader> readers = ConcurrentHashMap.newKeySet();
+    // Protetti da "this"
+    private Thread thread;
+    private InputStream current;
+    private boolean following;
+    private boolean closed;
+    // Timestamp dell'ultima riga letta, per non ripetere righe quando ci si ricollega
+    private volatile Instant last;
+    // Aggiornato a ogni avvio, il tipo del server può essere cambiato
+    private volatile ServerLogMetrics.Parser parser;
+
+    LogTail(String serverName) {
+      MinecraftServerOptions.Logs options = serverOptions.getLogs();
+      this.serverName = serverName;
+      this.buffer = new LogBuffer(options.getBufferLines(),
+          (int) Math.min(options.getBufferSize().toBytes(), Integer.MAX_VALUE));
+    }
+
+    synchronized void follow() {
+      if (closed || following) {
+        return;
+      }
+      following = true;
+      parser = logMetrics.parser(serverName);
+      thread = Thread.ofVirtual().name("logs-" + serverName).start(this::run);
+    }
+
+    synchronized void stopFollowing() {
+      following = false;
+      if (thread != null) {
+        thread.interrupt();
+      }
+      closeQuietly(current);
+    }
+
+    void close() {
+      synchronized (this) {
+        closed = true;
+      }
+      stopFollowing();
+      readers.forEach(reader -> reader.sink.complete());
+    }
+
+    Flux<LogLine> stream(Integer tail, Instant since) {
+      return Flux.create(sink -> {
+        long from;
+        if (tail == null && since == null) {
+          from = buffer.tail(serverOptions.getLogs().getDefaultTail());
+        } else if (since == null) {
+          from = buffer.tail(tail);
+        } else {
+          from = tail == null ? buffer.since(since)
+              : Math.max(buffer.since(since), buffer.tail(tail));
+        }
+        Reader reader = new Reader(sink, from);
+        readers.add(reader);
+        SUBSCRIBERS.inc();
+        sink.onRequest(n -> reader.drain());
+        sink.onDispose(() -> {
+          readers.remove(reader);
+          SUBSCRIBERS.dec();
+        });
+        if (closed()) {
+          sink.complete();
+        }
+      });
+    }
+
+    private synchronized boolean closed() {
+      return closed;
+    }
+
+    private synchronized boolean open(InputStream stream) {
+      if (!stillFollowing()) {
+        return false;
+      }
+      current = stream;
+      return true;
+    }
+
+    // Dopo uno stop e un nuovo follow il vecchio thread può essere ancora in lettura
+    private synchronized boolean stillFollowing() {
+      return following && thread == Thread.currentThread();
+    }
+
+    private void run() {
+      Duration delay = serverOptions.getLogs().getReconnectDelay();
+      while (stillFollowing()) {
+        Instant from = last;
+        // sinceSeconds è in secondi interi: le righe già lette nello stesso secondo si scartano
+        Integer sinceSeconds = from == null ? null
+            : (int) Math.max(1, Duration.between(from, Instant.now()).getSeconds() + 1);
+        try (InputStream is = podLogs.streamNamespacedPodLog(serverOptions.getNamespace(),
+            KubernetesServerInstanceService.getPodName(serverName), null, sinceSeconds, null,
+            true)) {
+          if (!open(is)) {
+            return;
+          }
+          ACTIVE_STREAMS.inc();
+          try {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+              append(line, from);
+            }
+          } finally {
+            ACTIVE_STREAMS.dec();
+          }
+        } catch (ApiException e) {
+          if (e.getCode() == 404) {
+            // Pod non ancora creato o già eliminato: si riparte al prossimo evento del pod
+            synchronized (this) {
+              if (thread == Thread.currentThread()) {
+                following = false;
+              }
+            }
+            return;
+          }
+        } catch (Exception e) {
+          // Stream interrotto o container riavviato: ci si ricollega
+        }
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    // Le righe arrivano come "2024-05-01T10:00:00.123456789Z testo"
+    private void append(String line, Instant from) {
+      int space = line.indexOf(' ');
+      Instant timestamp;
+      String text;
+      try {
+        timestamp = Instant.parse(line.substring(0, Math.max(space, 0)));
+        text = line.substring(space + 1);
+      } catch (DateTimeParseException e) {
+        timestamp = Instant.now();
+        text = line;
+      }
+      if (from != null && !timestamp.isAfter(from)) {
+        return;
+      }
+      last = timestamp;
+      logStore.append(serverName, timestamp, text);
+      parser.accept(timestamp, text);
+      buffer.append(timestamp, text);
+      readers.forEach(Reader::drain);
+    }
+
+    private class Reader {
+      private final FluxSink<LogLine> sink;
+      private final long maxLag;
+      // Protetti da "this"
+      private long next;
+      private boolean lagging = false;
+
+      // Lo storico richiesto all'inizio non conta come ritardo
+      Reader(FluxSink<LogLine> sink, long next) {
+        this.sink = sink;
+        this.next = next;
+        this.maxLag = Math.max(serverOptions.getLogs().getMaxSubscriberLag(),
+            buffer.nextSequence() - next);
+      }
+
+      synchronized void drain() {
+        while (!sink.isCancelled()) {
+          long oldest = Math.max(buffer.firstSequence(), buffer.nextSequence() - maxLag);
+          if (next < oldest && !skipTo(oldest)) {
+            return;
+          }
+          if (sink.requestedFromDownstream() == 0) {
+            return;
+          }
+          LogLine line = buffer.get(next);
+          if (line == null) {
+            if (next >= buffer.firstSequence()) {
+              // In pari con il log
+              lagging = false;
+              return;
+            }
+            continue;
+          }
+          sink.next(line);
+          next++;
+        }
+      }
+
+      /**
+       * Il client non legge abbastanza in fretta: si saltano le righe più vecchie o lo si
+       * disconnette, così non rallenta né la lettura del log né gli altri client.
+       *
+       * @return {@code false} se il client è stato disconnesso
+       */
+      private boolean skipTo(long oldest) {
+        SlowConsumerPolicy policy = serverOptions.getLogs().getSlowConsumerPolicy();
+        if (!lagging) {
+          lagging = true;
+          LAGGING_SUBSCRIBERS.labels(policy.name().toLowerCase(Locale.ROOT)).inc();
+        }
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+          sink.complete();
+          return false;
+        }
+        DROPPED_LINES.labels(serverName).inc(oldest - next);
+        next = oldest;
+        return true;
+      }
+    }
+  }
+
+  private static class LevelTracker {
+    private LogLevel current = LogLevel.INFO;
+
+    LogLevel level(String text) {
+      LogLevel level = LogLevel.of(text);
+      if (level != null) {
+        current = level;
+      }
+      return current;
+    }
+  }
+
+  private static void closeQuietly(InputStream stream) {
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        // già chiuso
+      }
+    }
+  }
+}
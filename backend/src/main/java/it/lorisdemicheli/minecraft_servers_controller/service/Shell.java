@@ -0,0 +1,13 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+final class Shell {
+
+  private Shell() {}
+
+  /**
+   * Quota l'argomento per {@code sh}: apici singoli, con quelli interni chiusi e riaperti.
+   */
+  static String quote(String value) {
+    return "'" + value.replace("'", "'\\''") + "'";
+  }
+}
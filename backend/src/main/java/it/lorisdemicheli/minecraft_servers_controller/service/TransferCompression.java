@@ -0,0 +1,184 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import io.prometheus.client.Counter;
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+
+/**
+ * Compressione dei file trasferiti tra controller e pod. Il tunnel exec dell'API server è molto
+ * più lento della CPU, quindi i file testuali (config, log, statistiche JSON) viaggiano compressi
+ * con gzip; quelli piccoli o già compressi passano invariati. Il pod indica sulla prima riga
+ * dell'output la codifica che usa: {@code gzip}, oppure {@code identity} se non ha gzip.
+ */
+@Component
+public class TransferCompression {
+
+  public static final String GZIP = "gzip";
+  public static final String IDENTITY = "identity";
+  public static final String DOWNLOAD = "download";
+  public static final String UPLOAD = "upload";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Counter CONTENT_BYTES = Counter.build() //
+      .name("minecraft_controller_file_transfer_bytes_total") //
+      .help("File bytes transferred to and from pods, before compression") //
+      .labelNames("direction", "encoding") //
+      .register();
+
+  private static final Counter WIRE_BYTES = Counter.build() //
+      .name("minecraft_controller_file_transfer_wire_bytes_total") //
+      .help("File transfer bytes actually sent through the exec tunnel") //
+      .labelNames("direction", "encoding") //
+      .register();
+
+  private static final Counter SAVED_BYTES = Counter.build() //
+      .name("minecraft_controller_file_transfer_saved_bytes_total") //
+      .help("Bytes not sent through the exec tunnel thanks to compression") //
+      .labelNames("direction") //
+      .register();
+
+  @Autowired
+  private MinecraftServerOptions serverOptions;
+
+  /**
+   * @param size dimensione del file, i file sotto {@code minCompressedSize} non vengono compressi
+   */
+  public boolean shouldCompress(String path, long size) {
+    MinecraftServerOptions.Transfer options = serverOptions.getTransfer();
+    if (!options.isCompression() || size < options.getMinCompressedSize().toBytes()) {
+      return false;
+    }
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    int dot = name.lastIndexOf('.');
+    return dot <= 0 || !options.getIncompressibleExtensions()
+        .contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  public int getLevel() {
+    return serverOptions.getTransfer().getCompressionLevel();
+  }
+
+  /**
+   * Stream del contenuto letto da {@code wire}; le metriche vengono registrate alla chiusura.
+   */
+  public InputStream decode(InputStream wire, String encoding) throws IOException {
+    CountingInputStream counted = new CountingInputStream(wire);
+    InputStream content = GZIP.equals(encoding) ? new GZIPInputStream(counted, BUFFER_SIZE) : counted;
+    return new CountingInputStream(content) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          record(DOWNLOAD, encoding, count, counted.count);
+        }
+      }
+    };
+  }
+
+  /**
+   * Stream su cui scrivere il contenuto da inviare su {@code wire}; la chiusura completa lo
+   * stream compresso, chiude {@code wire} e registra le metriche.
+   */
+  public OutputStream encode(OutputStream wire, String encoding) throws IOException {
+    CountingOutputStream counted = new CountingOutputStream(wire);
+    OutputStream content = GZIP.equals(encoding) ? new GZIPOutputStream(counted, BUFFER_SIZE) {
+      {
+        def.setLevel(getLevel());
+      }
+    } : counted;
+    return new CountingOutputStream(content) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          record(UPLOAD, encoding, count, counted.count);
+        }
+      }
+    };
+  }
+
+  /**
+   * Legge una riga di intestazione byte per byte, senza consumare il contenuto che la segue.
+   *
+   * @return la riga senza terminatore, {@code null} se lo stream è finito prima
+   */
+  static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+      }
+      line.write(b);
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  private static void record(String direction, String encoding, long content, long wire) {
+    CONTENT_BYTES.labels(direction, encoding).inc(content);
+    WIRE_BYTES.labels(direction, encoding).inc(wire);
+    if (content > wire) {
+      SAVED_BYTES.labels(direction).inc(content - wire);
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    protected long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    protected long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package it.lorisdemicheli.minecraft_servers_controller.protocol;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+
+class RconClientTests {
+
+	private static final String PASSWORD = "secret";
+
+	private FakeRconServer server;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new FakeRconServer(PASSWORD);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void returnsCommandOutput() throws Exception {
+		try (RconClient client = RconClient.connect("localhost", server.port(), PASSWORD, Duration.ofSeconds(2))) {
+			assertThat(client.command("list").get(2, TimeUnit.SECONDS)).isEqualTo("echo:list");
+		}
+	}
+
+	@Test
+	void pipelinesConcurrentCommands() throws Exception {
+		try (RconClient client = RconClient.connect("localhost", server.port(), PASSWORD, Duration.ofSeconds(2))) {
+			List<CompletableFuture<String>> responses = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				responses.add(client.command("say " + i));
+			}
+			for (int i = 0; i < 50; i++) {
+				assertThat(responses.get(i).get(2, TimeUnit.SECONDS)).isEqualTo("echo:say " + i);
+			}
+		}
+	}
+
+	@Test
+	void assemblesFragmentedResponses() throws Exception {
+		try (RconClient client = RconClient.connect("localhost", server.port(), PASSWORD, Duration.ofSeconds(2))) {
+			String output = client.command("long").get(2, TimeUnit.SECONDS);
+			assertThat(output.length()).isEqualTo(10_000);
+		}
+	}
+
+	@Test
+	void rejectsWrongPassword() {
+		assertThatThrownBy(() -> RconClient.connect("localhost", server.port(), "wrong", Duration.ofSeconds(2)))
+				.isInstanceOf(ProtocolException.class);
+	}
+
+	@Test
+	void timedOutCommandsAreNoLongerInFlight() throws Exception {
+		try (RconClient client = RconClient.connect("localhost", server.port(), PASSWORD, Duration.ofMillis(200))) {
+			assertThatThrownBy(() -> client.command("hang").get(2, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(TimeoutException.class);
+			assertThat(client.inFlight()).isZero();
+			assertThat(client.command("list").get(2, TimeUnit.SECONDS)).isEqualTo("echo:list");
+		}
+	}
+
+	@Test
+	void poolReconnectsAfterConnectionLoss() throws Exception {
+		MinecraftServerOptions options = new MinecraftServerOptions();
+		options.getRcon().setPort(server.port());
+		options.getRcon().setSecret("pool-secret");
+		RconConnectionPool pool = new RconConnectionPool(options);
+		server.password = pool.passwordFor("survival");
+
+		try {
+			assertThat(pool.acquire("survival", "localhost").command("list").get(2, TimeUnit.SECONDS))
+					.isEqualTo("echo:list");
+			assertThatThrownBy(() -> pool.acquire("survival", "localhost").command("drop").get(2, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(IOException.class);
+			assertThat(pool.acquire("survival", "localhost").command("list").get(2, TimeUnit.SECONDS))
+					.isEqualTo("echo:list");
+			assertThat(server.connections.get()).isEqualTo(2);
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test
+	void poolBacksOffWhileServerIsDown() throws Exception {
+		MinecraftServerOptions options = new MinecraftServerOptions();
+		options.getRcon().setPort(server.port());
+		options.getRcon().setInitialBackoff(Duration.ofMinutes(1));
+		RconConnectionPool pool = new RconConnectionPool(options);
+		server.close();
+
+		try {
+			assertThatThrownBy(() -> pool.acquire("survival", "localhost")).isInstanceOf(IOException.class);
+			assertThatThrownBy(() -> pool.acquire("survival", "localhost"))
+					.hasMessageContaining("RCON unavailable");
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test
+	void evictedServersReconnect() throws Exception {
+		MinecraftServerOptions options = new MinecraftServerOptions();
+		options.getRcon().setPort(server.port());
+		options.getRcon().setSecret("pool-secret");
+		RconConnectionPool pool = new RconConnectionPool(options);
+		server.password = pool.passwordFor("survival");
+
+		try {
+			RconClient first = pool.acquire("survival", "localhost");
+			pool.evict("survival");
+			assertThat(first.isOpen()).isFalse();
+			assertThat(pool.acquire("survival", "localhost").command("list").get(2, TimeUnit.SECONDS))
+					.isEqualTo("echo:list");
+		} finally {
+			pool.stop();
+		}
+	}
+
+	/**
+	 * Server RCON minimale con il comportamento di Minecraft: risposte spezzate in frammenti da 4096
+	 * byte e "Unknown request" per i tipi di pacchetto non gestiti.
+	 */
+	private static class FakeRconServer {
+		private final ServerSocket socket;
+		private final AtomicInteger connections = new AtomicInteger();
+		private volatile String password;
+
+		FakeRconServer(String password) throws IOException {
+			this.password = password;
+			this.socket = new ServerSocket(0);
+			Thread.ofVirtual().start(this::acceptLoop);
+		}
+
+		int port() {
+			return socket.getLocalPort();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+
+		private void acceptLoop() {
+			while (!socket.isClosed()) {
+				try {
+					Socket connection = socket.accept();
+					connections.incrementAndGet();
+					Thread.ofVirtual().start(() -> handle(connection));
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}
+
+		private void handle(Socket connection) {
+			try (connection) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+				OutputStream out = connection.getOutputStream();
+				boolean hanging = false;
+				while (true) {
+					RconClient.Packet packet = RconClient.readPacket(in);
+					String body = new String(packet.payload(), StandardCharsets.UTF_8);
+					switch (packet.type()) {
+						case RconClient.TYPE_AUTH -> RconClient.writePacket(out,
+								body.equals(password) ? packet.id() : -1, RconClient.TYPE_AUTH_RESPONSE, "");
+						case RconClient.TYPE_COMMAND -> {
+							if (body.equals("drop")) {
+								return;
+							}
+							if (body.equals("hang")) {
+								// Né la risposta né quella alla sentinella che segue
+								hanging = true;
+								continue;
+							}
+							String response = body.equals("long") ? "x".repeat(10_000) : "echo:" + body;
+							for (int i = 0; i < response.length(); i += 4096) {
+								RconClient.writePacket(out, packet.id(), RconClient.TYPE_RESPONSE,
+										response.substring(i, Math.min(response.length(), i + 4096)));
+							}
+						}
+						default -> {
+							if (hanging) {
+								hanging = false;
+								continue;
+							}
+							RconClient.writePacket(out, packet.id(), RconClient.TYPE_RESPONSE,
+									"Unknown request " + Integer.toHexString(packet.type()));
+						}
+					}
+					out.flush();
+				}
+			} catch (IOException e) {
+				// client disconnesso
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package it.lorisdemicheli.minecraft_servers_controller.protocol;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.ServerInfo;
+
+class ServerListPingClientTests {
+
+	private static final String STATUS = """
+			{"version":{"name":"1.21.4","protocol":769},
+			 "players":{"max":20,"online":2,"sample":[{"name":"Steve","id":"4566e69f-c907-48ee-8d71-d7ba5aa00d20"}]},
+			 "description":{"text":"Hello","color":"gold","extra":[{"text":" world"}]},
+			 "favicon":"data:image/png;base64,AAAA",
+			 "enforcesSecureChat":true}
+			""";
+
+	private ServerSocket fakeServer;
+	private ServerListPingClient client;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		fakeServer = new ServerSocket(0);
+		MinecraftServerOptions options = new MinecraftServerOptions();
+		options.getPing().setTimeout(Duration.ofSeconds(1));
+		options.getPing().setMaxConcurrent(2);
+		client = new ServerListPingClient(new ObjectMapper(), options);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		client.stop();
+		fakeServer.close();
+	}
+
+	@Test
+	void parsesStatusResponse() throws Exception {
+		serve(1, STATUS);
+
+		ServerInfo info = client.ping("localhost", fakeServer.getLocalPort()).get(2, TimeUnit.SECONDS);
+
+		assertThat(info.getVersion().getName()).isEqualTo("1.21.4");
+		assertThat(info.getVersion().getProtocol()).isEqualTo(769);
+		assertThat(info.getPlayers().getMax()).isEqualTo(20);
+		assertThat(info.getPlayers().getOnline()).isEqualTo(2);
+		assertThat(info.getPlayers().getSample().size()).isEqualTo(1);
+		assertThat(info.getDescription().getText()).isEqualTo("Hello");
+		assertThat(info.getDescription().getColor()).isEqualTo("gold");
+		assertThat(info.getFavicon()).isEqualTo("data:image/png;base64,AAAA");
+	}
+
+	@Test
+	void parsesPlainTextDescription() throws Exception {
+		serve(1, "{\"version\":{\"name\":\"1.8\",\"protocol\":47},\"description\":\"A Minecraft Server\"}");
+
+		ServerInfo info = client.ping("localhost", fakeServer.getLocalPort()).get(2, TimeUnit.SECONDS);
+
+		assertThat(info.getDescription().getText()).isEqualTo("A Minecraft Server");
+		assertThat(info.getPlayers()).isNull();
+	}
+
+	@Test
+	void queuesPingsBeyondConcurrencyLimit() throws Exception {
+		serve(5, STATUS);
+
+		List<CompletableFuture<ServerInfo>> pings = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			pings.add(client.ping("localhost", fakeServer.getLocalPort()));
+		}
+
+		for (CompletableFuture<ServerInfo> ping : pings) {
+			assertThat(ping.get(2, TimeUnit.SECONDS).getPlayers().getOnline()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void failsWhenServerDoesNotAnswer() {
+		Thread.ofVirtual().start(() -> {
+			try (Socket socket = fakeServer.accept()) {
+				Thread.sleep(3000);
+			} catch (Exception e) {
+				// chiusura del test
+			}
+		});
+
+		assertThatThrownBy(() -> client.ping("localhost", fakeServer.getLocalPort()).get(3, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class);
+	}
+
+	@Test
+	void failsFastOnNegativePacketLength() {
+		Thread.ofVirtual().start(() -> {
+			try (Socket socket = fakeServer.accept()) {
+				ByteArrayOutputStream frame = new ByteArrayOutputStream();
+				ServerListPingClient.writeVarInt(frame, -1);
+				socket.getOutputStream().write(frame.toByteArray());
+				socket.getOutputStream().flush();
+				Thread.sleep(3000);
+			} catch (Exception e) {
+				// chiusura del test
+			}
+		});
+
+		assertThatThrownBy(() -> client.ping("localhost", fakeServer.getLocalPort()).get(3, TimeUnit.SECONDS))
+				.hasCauseInstanceOf(ProtocolException.class);
+	}
+
+	private void serve(int connections, String json) {
+		Thread.ofVirtual().start(() -> {
+			for (int i = 0; i < connections; i++) {
+				try (Socket socket = fakeServer.accept()) {
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					// Handshake e status request
+					in.readFully(new byte[readVarInt(in)]);
+					in.readFully(new byte[readVarInt(in)]);
+
+					ByteArrayOutputStream packet = new ByteArrayOutputStream();
+					ServerListPingClient.writeVarInt(packet, 0x00);
+					ServerListPingClient.writeString(packet, json);
+
+					ByteArrayOutputStream frame = new ByteArrayOutputStream();
+					ServerListPingClient.writeVarInt(frame, packet.size());
+					frame.writeBytes(packet.toByteArray());
+					socket.getOutputStream().write(frame.toByteArray());
+					socket.getOutputStream().flush();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		});
+	}
+
+	private static int readVarInt(InputStream in) throws IOException {
+		int value = 0;
+		for (int i = 0; i < 5; i++) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("EOF");
+			}
+			value |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("VarInt too long");
+	}
+}
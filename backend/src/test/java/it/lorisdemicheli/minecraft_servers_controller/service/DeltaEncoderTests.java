@@ -0,0 +1,147 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.lorisdemicheli.minecraft_servers_controller.domain.BlockSignature;
+
+class DeltaEncoderTests {
+
+	private static final int BLOCK_SIZE = 4096;
+
+	private final Random random = new Random(42);
+
+	@Test
+	void unchangedFileIsCopiedEntirely() throws Exception {
+		byte[] old = randomBytes(10 * BLOCK_SIZE + 123);
+
+		DeltaEncoder.Result result = roundTrip(old, old.clone());
+
+		assertThat(result.literalBytes()).isZero();
+		assertThat(result.reusedBlocks()).isEqualTo(11);
+		// Una sola copia più la fine
+		assertThat(result.operations()).isEqualTo(2);
+	}
+
+	@Test
+	void insertionOnlySendsTheNewBytesAndOneBlock() throws Exception {
+		byte[] old = randomBytes(20 * BLOCK_SIZE);
+		byte[] inserted = randomBytes(100);
+		byte[] updated = new byte[old.length + inserted.length];
+		System.arraycopy(old, 0, updated, 0, 5000);
+		System.arraycopy(inserted, 0, updated, 5000, inserted.length);
+		System.arraycopy(old, 5000, updated, 5000 + inserted.length, old.length - 5000);
+
+		DeltaEncoder.Result result = roundTrip(old, updated);
+
+		// Il blocco che contiene l'inserimento viene inviato per intero
+		assertThat(result.literalBytes()).isEqualTo(BLOCK_SIZE + inserted.length);
+		assertThat(result.reusedBlocks()).isEqualTo(19);
+	}
+
+	@Test
+	void missingTargetSendsEverything() throws Exception {
+		byte[] updated = randomBytes(3 * DeltaEncoder.LITERAL_CHUNK + 7);
+
+		DeltaEncoder.Result result = roundTrip(new byte[0], updated);
+
+		assertThat(result.literalBytes()).isEqualTo(updated.length);
+		assertThat(result.reusedBlocks()).isZero();
+		assertThat(result.sha256()).isEqualTo(sha256(updated));
+	}
+
+	@Test
+	void rollingChecksumMatchesDirectComputation() throws Exception {
+		byte[] data = randomBytes(3 * BLOCK_SIZE);
+		List<BlockSignature> signatures = List.of(new BlockSignature(BLOCK_SIZE,
+				DeltaEncoder.weakChecksum(data, 777, BLOCK_SIZE), md5(data, 777, BLOCK_SIZE)));
+		byte[] updated = Arrays.copyOfRange(data, 0, 2 * BLOCK_SIZE);
+
+		ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+		DeltaEncoder.Result result = new DeltaEncoder(BLOCK_SIZE, signatures)
+				.encode(new ByteArrayInputStream(updated), manifest);
+
+		// Il blocco viene trovato a un offset non allineato
+		assertThat(result.reusedBlocks()).isEqualTo(1);
+		assertThat(result.literalBytes()).isEqualTo(updated.length - BLOCK_SIZE);
+	}
+
+	private DeltaEncoder.Result roundTrip(byte[] old, byte[] updated) throws Exception {
+		ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+		DeltaEncoder.Result result = new DeltaEncoder(BLOCK_SIZE, signatures(old))
+				.encode(new ByteArrayInputStream(updated), manifest);
+
+		assertThat(apply(old, manifest.toByteArray())).isEqualTo(updated);
+		assertThat(result.size()).isEqualTo(updated.length);
+		return result;
+	}
+
+	private static List<BlockSignature> signatures(byte[] data) throws Exception {
+		List<BlockSignature> signatures = new ArrayList<>();
+		for (int offset = 0; offset < data.length; offset += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, data.length - offset);
+			signatures.add(new BlockSignature(length, DeltaEncoder.weakChecksum(data, offset, length),
+					md5(data, offset, length)));
+		}
+		return signatures;
+	}
+
+	// Stessa logica dello script eseguito nel pod
+	private static byte[] apply(byte[] old, byte[] manifest) throws Exception {
+		ByteArrayInputStream in = new ByteArrayInputStream(manifest);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while (true) {
+			String[] op = readLine(in).split(" ");
+			switch (op[0]) {
+			case "C" -> {
+				int from = Integer.parseInt(op[1]) * BLOCK_SIZE;
+				int to = Math.min(old.length, from + Integer.parseInt(op[2]) * BLOCK_SIZE);
+				out.write(old, from, to - from);
+			}
+			case "D" -> out.write(in.readNBytes(Integer.parseInt(op[1])));
+			case "E" -> {
+				assertThat(Long.parseLong(op[1])).isEqualTo(out.size());
+				assertThat(op[2]).isEqualTo(sha256(out.toByteArray()));
+				return out.toByteArray();
+			}
+			default -> throw new IOException("Unknown operation " + op[0]);
+			}
+		}
+	}
+
+	private static String readLine(ByteArrayInputStream in) {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			line.append((char) b);
+		}
+		return line.toString();
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static String md5(byte[] data, int offset, int length) throws Exception {
+		MessageDigest md5 = MessageDigest.getInstance("MD5");
+		md5.update(data, offset, length);
+		return HexFormat.of().formatHex(md5.digest());
+	}
+
+	private static String sha256(byte[] data) throws Exception {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+	}
+}
@@ -0,0 +1,55 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+class LogBufferTests {
+
+	private static final Instant START = Instant.parse("2024-05-01T10:00:00Z");
+
+	@Test
+	void oldestLinesAreDroppedWhenTheLineLimitIsReached() {
+		LogBuffer buffer = new LogBuffer(3, 1024);
+		for (int i = 0; i < 5; i++) {
+			buffer.append(START.plusSeconds(i), "line " + i);
+		}
+
+		assertThat(buffer.firstSequence()).isEqualTo(2);
+		assertThat(buffer.nextSequence()).isEqualTo(5);
+		assertThat(buffer.get(1)).isNull();
+		assertThat(buffer.get(2).text()).isEqualTo("line 2");
+		assertThat(buffer.get(4).text()).isEqualTo("line 4");
+	}
+
+	@Test
+	void oldestLinesAreDroppedWhenTheByteLimitIsReached() {
+		LogBuffer buffer = new LogBuffer(100, 10);
+		buffer.append(START, "aaaa");
+		buffer.append(START, "bbbb");
+		// Non entra senza scartare la prima riga e finisce a cavallo della fine dell'array
+		buffer.append(START, "ccc€");
+
+		assertThat(buffer.firstSequence()).isEqualTo(1);
+		assertThat(buffer.get(1).text()).isEqualTo("bbbb");
+		assertThat(buffer.get(2).text()).isEqualTo("ccc€");
+		assertThat(buffer.sizeBytes()).isEqualTo(10);
+	}
+
+	@Test
+	void tailAndSinceStartFromTheRequestedLine() {
+		LogBuffer buffer = new LogBuffer(100, 1024);
+		for (int i = 0; i < 10; i++) {
+			buffer.append(START.plusSeconds(i), "line " + i);
+		}
+
+		assertThat(buffer.tail(3)).isEqualTo(7);
+		assertThat(buffer.tail(50)).isZero();
+		assertThat(buffer.since(START.plusSeconds(4))).isEqualTo(4);
+		assertThat(buffer.since(START.plusMillis(4500))).isEqualTo(5);
+		assertThat(buffer.since(START.plusSeconds(60))).isEqualTo(10);
+		assertThat(buffer.get(4).timestamp()).isEqualTo(START.plusSeconds(4));
+	}
+}
@@ -0,0 +1,87 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.regex.Matcher;
+
+import org.junit.jupiter.api.Test;
+
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.Type;
+
+class LogPatternsTests {
+
+	private final MinecraftServerOptions.LogMetrics options = new MinecraftServerOptions.LogMetrics();
+
+	@Test
+	void vanillaLinesAreRecognized() {
+		LogPatterns patterns = LogPatterns.of(Type.VANILLA, options);
+
+		Matcher lag = patterns.tickLag().matcher(
+				"[12:34:56] [Server thread/WARN]: Can't keep up! Is the server overloaded? Running 2345ms or 46 ticks behind");
+		assertThat(lag.find()).isTrue();
+		assertThat(lag.group("ms")).isEqualTo("2345");
+		assertThat(lag.group("ticks")).isEqualTo("46");
+
+		Matcher startup = patterns.startup().matcher(
+				"[12:34:56] [Server thread/INFO]: Done (12.345s)! For help, type \"help\"");
+		assertThat(startup.find()).isTrue();
+		assertThat(startup.group("seconds")).isEqualTo("12.345");
+
+		assertThat(patterns.join().matcher("[12:34:56] [Server thread/INFO]: Steve joined the game").find())
+				.isTrue();
+		assertThat(patterns.leave().matcher("[12:34:56] [Server thread/INFO]: Steve left the game").find())
+				.isTrue();
+	}
+
+	@Test
+	void eachTypeUsesItsOwnPrefix() {
+		String paper = "[12:34:56 INFO]: Steve joined the game";
+		String forge = "[12:34:56] [Server thread/INFO] [minecraft/MinecraftServer]: Steve joined the game";
+		String fabric = "[12:34:56] [Server thread/INFO] (Minecraft) Steve joined the game";
+
+		assertThat(LogPatterns.of(Type.PLUGIN, options).join().matcher(paper).find()).isTrue();
+		assertThat(LogPatterns.of(Type.VANILLA, options).join().matcher(paper).find()).isFalse();
+		assertThat(LogPatterns.of(Type.MOD, options).join().matcher(forge).find()).isTrue();
+		assertThat(LogPatterns.of(Type.MODRINTH, options).join().matcher(fabric).find()).isTrue();
+		assertThat(LogPatterns.of(null, options).join().matcher(forge).find()).isTrue();
+	}
+
+	@Test
+	void chatMessagesImitatingEventsAreIgnored() {
+		LogPatterns patterns = LogPatterns.of(Type.PLUGIN, options);
+
+		assertThat(patterns.join().matcher("[12:34:56 INFO]: <Steve> Alex joined the game").find()).isFalse();
+		assertThat(patterns.startup().matcher("[12:34:56 INFO]: <Steve> Done (1.0s)!").find()).isFalse();
+	}
+
+	@Test
+	void configuredPatternsReplaceTheDefaults() {
+		MinecraftServerOptions.LogMetrics.Patterns custom = new MinecraftServerOptions.LogMetrics.Patterns();
+		custom.setJoin("^\\[[^\\]]+\\] (?<player>\\w+) connected$");
+		options.getPatterns().put(Type.PLUGIN, custom);
+
+		LogPatterns patterns = LogPatterns.of(Type.PLUGIN, options);
+
+		assertThat(patterns.join().matcher("[12:34:56] Steve connected").find()).isTrue();
+		assertThat(patterns.leave().matcher("[12:34:56 INFO]: Steve left the game").find()).isTrue();
+	}
+
+	@Test
+	void configuredPatternsNeedTheParsedGroups() {
+		MinecraftServerOptions.LogMetrics.Patterns custom = new MinecraftServerOptions.LogMetrics.Patterns();
+		custom.setTickLag("behind by (?<ms>\\d+)ms");
+		options.getPatterns().put(Type.PLUGIN, custom);
+
+		assertThatThrownBy(() -> LogPatterns.validate(options)).isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("tick-lag").hasMessageContaining("ticks");
+
+		custom.setTickLag("behind by (?<ms>\\d+)ms or (?<ticks>\\d+) ticks");
+		LogPatterns.validate(options);
+
+		custom.setStartup("Done \\((?<seconds>");
+		assertThatThrownBy(() -> LogPatterns.validate(options)).isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("startup");
+	}
+}
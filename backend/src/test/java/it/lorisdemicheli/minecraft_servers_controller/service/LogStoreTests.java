@@ -0,0 +1,187 @@
+package it.lorisdemicheli.minecraft_servers_controller.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import it.lorisdemicheli.minecraft_servers_controller.config.MinecraftServerOptions;
+import it.lorisdemicheli.minecraft_servers_controller.domain.LogRecord;
+
+class LogStoreTests {
+
+	private static final String SERVER = "survival";
+	private static final int LINES = 1000;
+
+	@TempDir
+	private Path directory;
+
+	private final MinecraftServerOptions options = new MinecraftServerOptions();
+	private LogStore store;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		options.getLogStore().setDirectory(directory.toString());
+		// Segmenti e blocchi piccoli: mille righe bastano per ruotare più volte
+		options.getLogStore().setSegmentSize(DataSize.ofKilobytes(4));
+		options.getLogStore().setIndexInterval(DataSize.ofBytes(512));
+		store = open();
+	}
+
+	@AfterEach
+	void tearDown() {
+		store.stop();
+	}
+
+	@Test
+	void queriesReadRotatedAndCompressedSegments() throws Exception {
+		Instant start = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+		append(start, 0, LINES);
+		maintain();
+
+		assertThat(files(".log.gz").size()).isGreaterThan(1);
+		assertThat(files(".log")).hasSize(1);
+
+		List<LogRecord> all = query(null, null, null);
+		assertThat(all).hasSize(LINES);
+		assertThat(all.get(0).text()).isEqualTo(line(0));
+		assertThat(all.get(0).timestamp()).isEqualTo(start);
+		assertThat(all.get(LINES - 1).text()).isEqualTo(line(LINES - 1));
+
+		// Da metà di un blocco compresso fino a un istante escluso
+		List<LogRecord> range = query(start.plusMillis(25_050), start.plusSeconds(30), null);
+		assertThat(range).hasSize(49);
+		assertThat(range.get(0).text()).isEqualTo(line(251));
+		assertThat(range.get(48).text()).isEqualTo(line(299));
+
+		List<LogRecord> matches = query(start.plusSeconds(50), start.plusSeconds(80),
+				Pattern.compile("^line \\d\\d5 "));
+		assertThat(matches).hasSize(30);
+		assertThat(matches.get(0).text()).isEqualTo(line(505));
+		assertThat(matches.get(29).text()).isEqualTo(line(795));
+
+		assertThat(store.query(SERVER, null, null, null, 10).collectList().block()).hasSize(10);
+	}
+
+	@Test
+	void linesAlreadyStoredAreSkippedAfterARestart() throws Exception {
+		Instant start = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+		append(start, 0, 200);
+		store.stop();
+
+		store = open();
+		append(start, 0, 300);
+
+		List<LogRecord> all = query(null, null, null);
+		assertThat(all).hasSize(300);
+		assertThat(all.get(199).text()).isEqualTo(line(199));
+		assertThat(all.get(200).text()).isEqualTo(line(200));
+	}
+
+	@Test
+	void idleSegmentsAreClosedAndCompressed() throws Exception {
+		options.getLogStore().setSegmentDuration(Duration.ofMillis(200));
+		Instant start = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+		append(start, 0, 100);
+		Thread.sleep(300);
+		maintain();
+
+		assertThat(files(".log")).hasSize(0);
+		assertThat(query(null, null, null)).hasSize(100);
+	}
+
+	@Test
+	void oldestSegmentsAreDeletedBeyondTheSizeLimit() throws Exception {
+		options.getLogStore().setMaxSizePerServer(DataSize.ofKilobytes(8));
+		Instant start = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS);
+		append(start, 0, LINES);
+		maintain();
+
+		assertThat(size()).isLessThanOrEqualTo(DataSize.ofKilobytes(8).toBytes());
+		// Restano le righe più recenti, senza buchi
+		List<LogRecord> all = query(null, null, null);
+		assertThat(all.size()).isLessThan(LINES);
+		assertThat(all.get(0).timestamp()).isEqualTo(start.plusMillis((LINES - all.size()) * 100L));
+		assertThat(all.get(all.size() - 1).text()).isEqualTo(line(LINES - 1));
+	}
+
+	@Test
+	void segmentsOlderThanMaxAgeAreDeleted() throws Exception {
+		Instant old = Instant.now().minus(Duration.ofDays(10)).truncatedTo(ChronoUnit.SECONDS);
+		append(old, 0, LINES);
+		Instant recent = Instant.now().minus(Duration.ofMinutes(1)).truncatedTo(ChronoUnit.SECONDS);
+		append(recent, LINES, 10);
+		maintain();
+
+		// Di quelle vecchie resta al più il segmento che precede le righe recenti
+		assertThat(files(".log.gz").size()).isLessThanOrEqualTo(1);
+		List<LogRecord> all = query(null, null, null);
+		assertThat(all.size()).isLessThan(LINES);
+		assertThat(all.get(all.size() - 11).text()).isEqualTo(line(LINES - 1));
+		assertThat(query(recent, null, null)).hasSize(10);
+	}
+
+	private LogStore open() throws Exception {
+		LogStore store = new LogStore();
+		ReflectionTestUtils.setField(store, "serverOptions", options);
+		store.start();
+		this.store = store;
+		// Attende la manutenzione lanciata all'avvio
+		maintain();
+		return store;
+	}
+
+	// Sul thread dello store, dopo le compressioni già accodate dalle rotazioni
+	private void maintain() throws Exception {
+		ScheduledExecutorService maintenance = (ScheduledExecutorService) ReflectionTestUtils
+				.getField(store, "maintenance");
+		maintenance.submit(() -> ReflectionTestUtils.invokeMethod(store, "maintain")) //
+				.get(10, TimeUnit.SECONDS);
+	}
+
+	// Una riga ogni 100 ms; l'UUID rende le righe poco comprimibili
+	private void append(Instant start, int first, int count) {
+		for (int i = first; i < first + count; i++) {
+			store.append(SERVER, start.plusMillis((i - first) * 100L), line(i));
+		}
+	}
+
+	private static String line(int i) {
+		return "line " + i + " " + UUID.nameUUIDFromBytes(Integer.toString(i).getBytes());
+	}
+
+	private List<LogRecord> query(Instant from, Instant to, Pattern pattern) {
+		return store.query(SERVER, from, to, pattern, Integer.MAX_VALUE).collectList().block();
+	}
+
+	private List<String> files(String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory.resolve(SERVER))) {
+			return files.map(file -> file.getFileName().toString()) //
+					.filter(name -> name.endsWith(suffix)) //
+					.toList();
+		}
+	}
+
+	private long size() throws IOException {
+		try (Stream<Path> files = Files.list(directory.resolve(SERVER))) {
+			return files.mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+}